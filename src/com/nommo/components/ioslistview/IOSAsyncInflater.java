@@ -0,0 +1,101 @@
+package com.lightinthebox.android.view;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+/**
+ * 加载更多的请求进行时，在后台线程提前创建下一页需要的ViewHolder，
+ * 完成后在主线程放入Adapter的缓存，新的一页显示时不需要再在主线程加载布局
+ */
+class IOSAsyncInflater {
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** 后台线程专用的LayoutInflater副本，同一时间只有一次预加载使用. */
+    private LayoutInflater mInflater;
+
+    /** 每次取消加1，之前的结果返回时直接丢弃. */
+    private int mGeneration;
+
+    /** 同一时间只进行一次预加载. */
+    private boolean mRunning;
+
+    /**
+     * 开始预加载，正在进行时直接返回
+     *
+     * @param adapter
+     * @param parent 列表，用于生成布局参数
+     * @param executor 后台线程
+     */
+    void preInflate(final IOSHolderAdapter<?> adapter, final ViewGroup parent,
+            Executor executor) {
+        if (mRunning) {
+            return;
+        }
+
+        // 在主线程计算各类型需要创建的数量
+        int typeCount = adapter.getViewTypeCount();
+        final int[] counts = new int[typeCount];
+        boolean needed = false;
+        for (int type = 0; type < typeCount; type++) {
+            counts[type] = adapter.getPreInflateNeeded(type);
+            needed |= counts[type] > 0;
+        }
+        if (!needed) {
+            return;
+        }
+
+        if (mInflater == null || mInflater.getContext() != parent.getContext()) {
+            mInflater = LayoutInflater.from(parent.getContext()).cloneInContext(
+                    parent.getContext());
+        }
+        final LayoutInflater inflater = mInflater;
+        mRunning = true;
+        final int generation = mGeneration;
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final ArrayList<IOSHolderAdapter.ViewHolder> holders = new ArrayList<IOSHolderAdapter.ViewHolder>();
+                try {
+                    for (int type = 0; type < counts.length; type++) {
+                        for (int i = 0; i < counts[type]; i++) {
+                            holders.add(adapter.createViewHolder(parent, type,
+                                    inflater));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // 布局不支持在后台线程加载，剩下的仍在主线程创建
+                }
+                mMainHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRunning = false;
+                        for (IOSHolderAdapter.ViewHolder holder : holders) {
+                            adapter.getViewPool().put(holder);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 取消正在进行的预加载，已创建的结果会被丢弃
+     */
+    void cancel() {
+        mGeneration++;
+        mRunning = false;
+        // 被取消的预加载可能仍在使用，下一次重新创建
+        mInflater = null;
+    }
+}
@@ -0,0 +1,422 @@
+package com.lightinthebox.android.view;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.support.v4.util.AtomicFile;
+
+import com.lightinthebox.android.view.IOSListPager.Page;
+
+/**
+ * IOSListPager的本地页缓存，每页保存为一个二进制文件，
+ * 超过有效期的页不再返回，文件总大小超出上限时从最早保存的开始删除。
+ * 读写按文件分锁，主线程读取时不会等待其它页的写入及清理
+ *
+ * @param <K> 页码或游标类型
+ * @param <T> 数据项类型
+ */
+public class IOSFilePageCache<K, T> {
+
+    /** 文件头，用于识别缓存文件. */
+    private final static int MAGIC = 0x494f5350;
+
+    /** 格式版本，格式变化时加1，旧版本的文件直接丢弃. */
+    private final static int VERSION = 1;
+
+    private final static String FILE_PREFIX = "page_";
+
+    /** 文件锁的数量，同一文件名总是对应同一个锁. */
+    private final static int LOCK_COUNT = 16;
+
+    private final File mDir;
+
+    private final Codec<K, T> mCodec;
+
+    /** 所有缓存文件的总大小上限，单位：字节. */
+    private final long mMaxBytes;
+
+    /** 有效期，单位：毫秒. */
+    private final long mMaxAge;
+
+    /** 按文件名分的锁，单个文件的读写及删除都在对应的锁内进行. */
+    private final Object[] mLocks = new Object[LOCK_COUNT];
+
+    /**
+     * 文件名到文件大小的索引，按保存顺序排列，最早保存的在前，
+     * 第一次保存时从目录中加载，之后清理时不再访问文件系统。
+     * 以该对象作为索引的锁，可在文件锁内获取，反之不行
+     */
+    private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<String, Long>();
+
+    /** 索引中文件的总大小. */
+    private long mTotalBytes;
+
+    private boolean mIndexLoaded;
+
+    /**
+     * @param dir 缓存目录，只能存放该缓存的文件
+     * @param codec 页码/游标及数据项的读写方法
+     * @param maxBytes 总大小上限，单位：字节
+     * @param maxAge 有效期，单位：毫秒
+     */
+    public IOSFilePageCache(File dir, Codec<K, T> codec, long maxBytes,
+            long maxAge) {
+        if (dir == null || codec == null) {
+            throw new IllegalArgumentException("dir and codec must not be null");
+        }
+        mDir = dir;
+        mCodec = codec;
+        mMaxBytes = maxBytes;
+        mMaxAge = maxAge;
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    public Codec<K, T> getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * 读取一页，不存在、已过期或无法解析时返回null，可在主线程中调用
+     *
+     * @param key
+     */
+    public Entry<K, T> get(K key) {
+        File base;
+        byte[] keyBytes;
+        try {
+            keyBytes = encodeKey(key);
+            base = fileFor(keyBytes);
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (lockFor(base.getName())) {
+            return read(new AtomicFile(base), keyBytes);
+        }
+    }
+
+    private Entry<K, T> read(AtomicFile file, byte[] keyBytes) {
+        if (!file.getBaseFile().exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            FileInputStream fis = file.openRead();
+            // 文件中记录的长度不能超过文件大小，损坏的文件不会导致分配过大的内存
+            long fileLength = file.getBaseFile().length();
+            in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                delete(file);
+                return null;
+            }
+            long savedTime = in.readLong();
+            if (System.currentTimeMillis() - savedTime > mMaxAge) {
+                delete(file);
+                return null;
+            }
+
+            // 文件名按hash生成，需比较完整的页码/游标
+            int keyLength = in.readInt();
+            if (keyLength < 0 || keyLength > fileLength) {
+                delete(file);
+                return null;
+            }
+            byte[] savedKey = new byte[keyLength];
+            in.readFully(savedKey);
+            if (!Arrays.equals(savedKey, keyBytes)) {
+                return null;
+            }
+            K nextKey = in.readBoolean() ? mCodec.readKey(in) : null;
+            K prevKey = in.readBoolean() ? mCodec.readKey(in) : null;
+            // 每一项至少占一个字节
+            int count = in.readInt();
+            if (count < 0 || count > fileLength) {
+                delete(file);
+                return null;
+            }
+            List<T> items = new ArrayList<T>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(mCodec.readItem(in));
+            }
+            return new Entry<K, T>(new Page<K, T>(items, nextKey, prevKey),
+                    savedTime);
+        } catch (IOException e) {
+            delete(file);
+            return null;
+        } catch (RuntimeException e) {
+            delete(file);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 保存一页，会进行文件读写，应在后台线程中调用
+     *
+     * @param key
+     * @param page
+     */
+    public void put(K key, Page<K, T> page) {
+        File base;
+        byte[] keyBytes;
+        try {
+            keyBytes = encodeKey(key);
+            base = fileFor(keyBytes);
+        } catch (IOException e) {
+            return;
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return;
+        }
+
+        boolean written;
+        synchronized (lockFor(base.getName())) {
+            written = write(new AtomicFile(base), keyBytes, page);
+        }
+        // 清理时不持有该页的锁，只短暂获取被删除文件的锁
+        if (written) {
+            trimToSize();
+        }
+    }
+
+    private boolean write(AtomicFile file, byte[] keyBytes, Page<K, T> page) {
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            writeOptionalKey(out, page.nextKey);
+            writeOptionalKey(out, page.prevKey);
+            out.writeInt(page.items.size());
+            for (T item : page.items) {
+                mCodec.writeItem(out, item);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+            return false;
+        } catch (RuntimeException e) {
+            // Codec无法写入该页，放弃写入并删除旧的缓存，避免后台线程崩溃
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+            delete(file);
+            return false;
+        }
+        File base = file.getBaseFile();
+        synchronized (mIndex) {
+            loadIndexLocked();
+            removeFromIndexLocked(base.getName());
+            long length = base.length();
+            mIndex.put(base.getName(), length);
+            mTotalBytes += length;
+        }
+        return true;
+    }
+
+    /**
+     * 删除一页
+     *
+     * @param key
+     */
+    public void remove(K key) {
+        File base;
+        try {
+            base = fileFor(encodeKey(key));
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (lockFor(base.getName())) {
+            delete(new AtomicFile(base));
+        }
+    }
+
+    /**
+     * 删除所有缓存
+     */
+    public void clear() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (isPageFile(name)) {
+                synchronized (lockFor(name)) {
+                    delete(new AtomicFile(file));
+                }
+            }
+        }
+    }
+
+    /**
+     * 总大小超出上限时按索引从最早保存的文件开始删除，
+     * 每次只持有被删除文件的锁
+     */
+    private void trimToSize() {
+        while (true) {
+            String oldest;
+            synchronized (mIndex) {
+                if (mTotalBytes <= mMaxBytes || mIndex.isEmpty()) {
+                    return;
+                }
+                oldest = mIndex.keySet().iterator().next();
+            }
+            synchronized (lockFor(oldest)) {
+                delete(new AtomicFile(new File(mDir, oldest)));
+            }
+        }
+    }
+
+    /**
+     * 删除文件并更新索引，需在该文件的锁内调用
+     */
+    private void delete(AtomicFile file) {
+        file.delete();
+        synchronized (mIndex) {
+            removeFromIndexLocked(file.getBaseFile().getName());
+        }
+    }
+
+    /**
+     * 第一次使用索引时按修改时间加载目录中的文件，需持有索引的锁
+     */
+    private void loadIndexLocked() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final HashMap<File, Long> modified = new HashMap<File, Long>();
+        List<File> pages = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (isPageFile(file.getName())) {
+                modified.put(file, file.lastModified());
+                pages.add(file);
+            }
+        }
+        Collections.sort(pages, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = modified.get(lhs);
+                long r = modified.get(rhs);
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : pages) {
+            long length = file.length();
+            mIndex.put(file.getName(), length);
+            mTotalBytes += length;
+        }
+    }
+
+    private void removeFromIndexLocked(String name) {
+        Long length = mIndex.remove(name);
+        if (length != null) {
+            mTotalBytes -= length;
+        }
+    }
+
+    private Object lockFor(String name) {
+        return mLocks[(name.hashCode() & 0x7fffffff) % LOCK_COUNT];
+    }
+
+    /**
+     * AtomicFile的备份文件随页文件一起删除，不单独计入索引
+     */
+    private static boolean isPageFile(String name) {
+        return name.startsWith(FILE_PREFIX) && !name.endsWith(".bak");
+    }
+
+    private void writeOptionalKey(DataOutputStream out, K key)
+            throws IOException {
+        out.writeBoolean(key != null);
+        if (key != null) {
+            mCodec.writeKey(out, key);
+        }
+    }
+
+    private byte[] encodeKey(K key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        mCodec.writeKey(out, key);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private File fileFor(byte[] keyBytes) {
+        return new File(mDir, FILE_PREFIX
+                + Integer.toHexString(Arrays.hashCode(keyBytes)));
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * 缓存的一页及保存时间
+     */
+    public static class Entry<K, T> {
+
+        public final Page<K, T> page;
+
+        /** 保存时间，System.currentTimeMillis(). */
+        public final long savedTime;
+
+        Entry(Page<K, T> page, long savedTime) {
+            this.page = page;
+            this.savedTime = savedTime;
+        }
+    }
+
+    /**
+     * 页码/游标及数据项的二进制读写方法，读取的顺序需与写入一致，
+     * 每一项至少写入一个字节，读取时按文件大小检查项数
+     */
+    public interface Codec<K, T> {
+
+        public void writeKey(DataOutputStream out, K key) throws IOException;
+
+        public K readKey(DataInputStream in) throws IOException;
+
+        public void writeItem(DataOutputStream out, T item) throws IOException;
+
+        public T readItem(DataInputStream in) throws IOException;
+    }
+}
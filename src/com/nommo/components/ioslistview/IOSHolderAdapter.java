@@ -0,0 +1,224 @@
+package com.lightinthebox.android.view;
+
+import java.util.List;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * 使用ViewHolder的Adapter，子类只需创建及绑定ViewHolder，不用再处理convertView，
+ * 多种view类型时重写getViewTypeCount及getItemViewType。
+ * ViewHolder通过itemView的tag关联，子类不要再修改itemView的tag
+ *
+ * @param <VH> ViewHolder类型
+ */
+public abstract class IOSHolderAdapter<VH extends IOSHolderAdapter.ViewHolder>
+        extends BaseAdapter {
+
+    /** 后台预加载时当前线程使用的LayoutInflater，与主线程的不共用，避免互相等待. */
+    private final static ThreadLocal<LayoutInflater> sBackgroundInflater = new ThreadLocal<LayoutInflater>();
+
+    private IOSViewPool mViewPool = new IOSViewPool();
+
+    /**
+     * 设置ViewHolder缓存，同一界面的多个列表可以共用一个，需在setAdapter之前设置
+     *
+     * @param pool
+     */
+    public void setViewPool(IOSViewPool pool) {
+        mViewPool = pool != null ? pool : new IOSViewPool();
+    }
+
+    public IOSViewPool getViewPool() {
+        return mViewPool;
+    }
+
+    /**
+     * 提前创建ViewHolder放入缓存，第一次显示及快速滑动时不需要再加载布局
+     *
+     * @param parent 列表，用于生成布局参数
+     * @param viewType
+     * @param count 缓存中该类型的目标数量，不超过缓存上限
+     */
+    public void prewarm(ViewGroup parent, int viewType, int count) {
+        count = Math.min(count, mViewPool.getMaxRecycledViews(viewType));
+        while (mViewPool.getRecycledViewCount(viewType) < count) {
+            if (!mViewPool.put(createViewHolder(parent, viewType))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        int viewType = getItemViewType(position);
+        VH holder = null;
+        if (convertView != null) {
+            holder = castHolder(convertView.getTag(), viewType);
+        }
+        if (holder == null) {
+            holder = castHolder(mViewPool.get(viewType), viewType);
+        }
+        if (holder == null) {
+            holder = createViewHolder(parent, viewType);
+        }
+        holder.mPosition = position;
+        onBindViewHolder(holder, position);
+        return holder.itemView;
+    }
+
+    /**
+     * 把列表不再使用的view放回缓存，列表与窗口分离时由IOSListView调用
+     *
+     * @param views 已从列表中移除的view
+     */
+    void recycleViews(List<View> views) {
+        for (int i = 0, count = views.size(); i < count; i++) {
+            Object tag = views.get(i).getTag();
+            if (tag instanceof ViewHolder) {
+                VH holder = castHolder(tag, ((ViewHolder) tag).mItemViewType);
+                if (holder != null) {
+                    holder.mPosition = -1;
+                    onViewRecycled(holder);
+                    mViewPool.put(holder);
+                }
+            }
+        }
+    }
+
+    /**
+     * 加载更多时需要在后台预先创建的数量，不超过缓存上限，减去缓存中已有的数量
+     */
+    int getPreInflateNeeded(int viewType) {
+        if (!canInflateInBackground(viewType)) {
+            return 0;
+        }
+        int count = Math.min(getPreInflateCount(viewType),
+                mViewPool.getMaxRecycledViews(viewType));
+        return Math.max(0, count - mViewPool.getRecycledViewCount(viewType));
+    }
+
+    /**
+     * 创建ViewHolder并与itemView关联，开启预加载时可能在后台线程调用
+     */
+    VH createViewHolder(ViewGroup parent, int viewType) {
+        VH holder = onCreateViewHolder(parent, viewType);
+        holder.mItemViewType = viewType;
+        holder.mAdapterClass = getClass();
+        holder.itemView.setTag(holder);
+        return holder;
+    }
+
+    /**
+     * 在后台线程中创建ViewHolder，期间getLayoutInflater返回inflater
+     *
+     * @param inflater 后台线程专用的LayoutInflater
+     */
+    VH createViewHolder(ViewGroup parent, int viewType, LayoutInflater inflater) {
+        sBackgroundInflater.set(inflater);
+        try {
+            return createViewHolder(parent, viewType);
+        } finally {
+            sBackgroundInflater.remove();
+        }
+    }
+
+    /**
+     * onCreateViewHolder中加载布局应使用该LayoutInflater：后台预加载时为后台线程专用的副本，
+     * Activity共用的LayoutInflater加载时会加锁，在后台使用会阻塞主线程的加载
+     *
+     * @param parent
+     */
+    protected LayoutInflater getLayoutInflater(ViewGroup parent) {
+        LayoutInflater inflater = sBackgroundInflater.get();
+        return inflater != null ? inflater : LayoutInflater.from(parent
+                .getContext());
+    }
+
+    /**
+     * 缓存中可能有其他Adapter放入的ViewHolder，类型不一致时不复用
+     */
+    @SuppressWarnings("unchecked")
+    private VH castHolder(Object tag, int viewType) {
+        if (!(tag instanceof ViewHolder)) {
+            return null;
+        }
+        ViewHolder holder = (ViewHolder) tag;
+        if (holder.mItemViewType != viewType
+                || holder.mAdapterClass != getClass()) {
+            return null;
+        }
+        return (VH) holder;
+    }
+
+    /**
+     * 创建ViewHolder，在这里加载布局并查找子view
+     */
+    protected abstract VH onCreateViewHolder(ViewGroup parent, int viewType);
+
+    /**
+     * 把position位置的数据绑定到holder
+     */
+    protected abstract void onBindViewHolder(VH holder, int position);
+
+    /**
+     * 该类型的onCreateViewHolder是否可以在后台线程调用，布局中的view不能在构造时创建Handler
+     * 或访问主线程的状态，且需通过getLayoutInflater加载布局，默认为false
+     *
+     * @param viewType
+     */
+    protected boolean canInflateInBackground(int viewType) {
+        return false;
+    }
+
+    /**
+     * 加载更多时在后台预先创建的数量，一般为一页中该类型的行数，
+     * 超过缓存上限时需先通过IOSViewPool.setMaxRecycledViews调整
+     *
+     * @param viewType
+     */
+    protected int getPreInflateCount(int viewType) {
+        return 0;
+    }
+
+    /**
+     * holder被放回缓存时调用，可在这里释放图片等资源
+     */
+    protected void onViewRecycled(VH holder) {
+    }
+
+    /**
+     * 持有一行的view及其子view
+     */
+    public static class ViewHolder {
+
+        public final View itemView;
+
+        int mItemViewType;
+
+        int mPosition = -1;
+
+        /** 创建该holder的Adapter类型，共用缓存时用于区分. */
+        Class<?> mAdapterClass;
+
+        public ViewHolder(View itemView) {
+            if (itemView == null) {
+                throw new IllegalArgumentException("itemView may not be null");
+            }
+            this.itemView = itemView;
+        }
+
+        public int getItemViewType() {
+            return mItemViewType;
+        }
+
+        /**
+         * 当前绑定的位置，在缓存中时为-1
+         */
+        public int getPosition() {
+            return mPosition;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.lightinthebox.android.view;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.ViewGroup;
+
+/**
+ * 滑动过程中利用主线程的空闲时间，为即将显示的行提前创建ViewHolder放入缓存，
+ * 每次空闲在时间预算内创建，预计超出预算时留到下一次空闲，
+ * 单个创建耗时超过预算时仍可能推迟下一帧
+ */
+class IOSIdlePrefetcher implements MessageQueue.IdleHandler {
+
+    /** 每次空闲用于创建的时间预算，单位：毫秒. */
+    private final static long IDLE_BUDGET_MILLIS = 4;
+
+    private final ViewGroup mParent;
+
+    private IOSHolderAdapter<?> mAdapter;
+
+    /** 即将显示的行中各类型还需要创建的数量，可见行滑出后回收的view可以直接复用，不计算在内. */
+    private int[] mUpcoming = new int[0];
+
+    private boolean mRegistered;
+
+    IOSIdlePrefetcher(ViewGroup parent) {
+        mParent = parent;
+    }
+
+    /**
+     * 可见区域变化时调用，重新统计即将显示的行
+     *
+     * @param adapter
+     * @param first 第一个可见行，Adapter中的位置
+     * @param last 最后一个可见行
+     * @param count 需要预取的行数
+     */
+    void schedule(IOSHolderAdapter<?> adapter, int first, int last, int count) {
+        mAdapter = adapter;
+        int typeCount = adapter.getViewTypeCount();
+        if (mUpcoming.length != typeCount) {
+            mUpcoming = new int[typeCount];
+        } else {
+            for (int i = 0; i < typeCount; i++) {
+                mUpcoming[i] = 0;
+            }
+        }
+
+        int size = adapter.getCount();
+        int to = Math.min(size, last + 1 + count);
+        for (int position = Math.max(0, last + 1); position < to; position++) {
+            int type = adapter.getItemViewType(position);
+            if (type >= 0 && type < typeCount) {
+                mUpcoming[type]++;
+            }
+        }
+        for (int position = Math.max(0, first); position <= last
+                && position < size; position++) {
+            int type = adapter.getItemViewType(position);
+            if (type >= 0 && type < typeCount) {
+                mUpcoming[type]--;
+            }
+        }
+
+        if (!mRegistered && nextType() >= 0) {
+            mRegistered = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    void cancel() {
+        if (mRegistered) {
+            mRegistered = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+        mAdapter = null;
+    }
+
+    @Override
+    public boolean queueIdle() {
+        int type = mAdapter != null ? nextType() : -1;
+        long start = SystemClock.uptimeMillis();
+        long now = start;
+        long last = 0;
+        boolean created = false;
+        // 按上一个的耗时估计下一个，剩余时间不够时返回true等待下一次空闲
+        while (type >= 0) {
+            if (created && now - start + last > IDLE_BUDGET_MILLIS) {
+                return true;
+            }
+            created = true;
+            mAdapter.getViewPool().put(mAdapter.createViewHolder(mParent, type));
+            long end = SystemClock.uptimeMillis();
+            last = end - now;
+            now = end;
+            // createViewHolder中可能取消了预取
+            type = mAdapter != null ? nextType() : -1;
+        }
+        mRegistered = false;
+        return false;
+    }
+
+    /**
+     * 缓存中数量不足的第一种类型，都已足够时返回-1
+     */
+    private int nextType() {
+        IOSViewPool pool = mAdapter.getViewPool();
+        for (int type = 0; type < mUpcoming.length; type++) {
+            int needed = Math.min(mUpcoming[type],
+                    pool.getMaxRecycledViews(type));
+            if (needed > pool.getRecycledViewCount(type)) {
+                return type;
+            }
+        }
+        return -1;
+    }
+}
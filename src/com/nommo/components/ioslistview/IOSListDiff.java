@@ -0,0 +1,206 @@
+package com.lightinthebox.android.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 按数据id比较刷新返回的第一页与当前数据，计算出需要替换的范围，
+ * 在后台线程中调用，结果在主线程中应用到IOSPagedList
+ */
+public class IOSListDiff {
+
+    private IOSListDiff() {
+    }
+
+    /**
+     * 计算刷新结果
+     *
+     * @param oldIds 当前所有数据的id，包括已释放的页
+     * @param oldItems 当前所有数据，已释放的页为null
+     * @param newItems 刷新返回的第一页
+     * @param callback
+     */
+    public static <T> Result<T> compute(long[] oldIds, List<T> oldItems,
+            List<T> newItems, ItemCallback<T> callback) {
+        int newSize = newItems.size();
+        HashMap<Long, Integer> newPositions = new HashMap<Long, Integer>(
+                newSize * 2);
+        for (int i = 0; i < newSize; i++) {
+            newPositions.put(callback.getItemId(newItems.get(i)), i);
+        }
+
+        // 只在头部约一页的范围内查找重叠，第一个重叠行之后一页内的旧数据被新的第一页替换，
+        // 之后的数据保留。更靠后的行出现在新数据中（被置顶等）时只移除该行，不截断后面的数据
+        int firstMatch = -1;
+        for (int i = 0; i < oldIds.length && i < newSize; i++) {
+            if (newPositions.containsKey(oldIds[i])) {
+                firstMatch = i;
+                break;
+            }
+        }
+        if (firstMatch < 0) {
+            return new Result<T>(true, 0, new ArrayList<T>(newItems), null,
+                    null, newSize);
+        }
+        int lastMatch = firstMatch;
+        int bound = Math.min(oldIds.length, firstMatch + newSize);
+        for (int i = firstMatch + 1; i < bound; i++) {
+            if (newPositions.containsKey(oldIds[i])) {
+                lastMatch = i;
+            }
+        }
+
+        int replacedCount = lastMatch + 1;
+        int movedCount = 0;
+        int[] moved = new int[0];
+        for (int i = replacedCount; i < oldIds.length; i++) {
+            if (newPositions.containsKey(oldIds[i])) {
+                if (movedCount == moved.length) {
+                    int[] grown = new int[Math.max(4, movedCount * 2)];
+                    System.arraycopy(moved, 0, grown, 0, movedCount);
+                    moved = grown;
+                }
+                moved[movedCount++] = i;
+            }
+        }
+        int[] removed = new int[movedCount];
+        System.arraycopy(moved, 0, removed, 0, movedCount);
+
+        int[] headMap = new int[replacedCount];
+        List<T> head = new ArrayList<T>(newItems);
+        boolean[] reused = new boolean[newSize];
+        for (int i = 0; i < replacedCount; i++) {
+            Integer newPosition = newPositions.get(oldIds[i]);
+            if (newPosition == null) {
+                headMap[i] = -1;
+                continue;
+            }
+            headMap[i] = newPosition;
+
+            // 内容没有变化时沿用原来的对象，Adapter据此跳过重新绑定
+            T oldItem = oldItems.get(i);
+            if (oldItem != null
+                    && callback.areContentsTheSame(oldItem,
+                            newItems.get(newPosition))) {
+                head.set(newPosition, oldItem);
+                reused[newPosition] = true;
+            }
+        }
+        int changedCount = 0;
+        for (boolean r : reused) {
+            if (!r) {
+                changedCount++;
+            }
+        }
+        return new Result<T>(false, replacedCount, head, headMap, removed,
+                changedCount);
+    }
+
+    /**
+     * 比较结果
+     */
+    public static class Result<T> {
+
+        private final boolean mFullReplace;
+
+        /** 被替换的旧数据行数，从第0行开始. */
+        private final int mReplacedCount;
+
+        /** 新的第一页，内容未变化的行沿用旧对象. */
+        private final List<T> mHead;
+
+        /** 被替换的旧数据在新数据中的位置，-1表示已删除. */
+        private final int[] mHeadMap;
+
+        /** 保留部分中移到新的第一页的行的旧位置，从小到大排列. */
+        private final int[] mRemoved;
+
+        /** 新增或内容有变化的行数. */
+        private final int mChangedCount;
+
+        Result(boolean fullReplace, int replacedCount, List<T> head,
+                int[] headMap, int[] removed, int changedCount) {
+            mFullReplace = fullReplace;
+            mReplacedCount = replacedCount;
+            mHead = head;
+            mHeadMap = headMap;
+            mRemoved = removed != null ? removed : new int[0];
+            mChangedCount = changedCount;
+        }
+
+        /**
+         * 新旧数据没有重叠，需要替换全部数据
+         */
+        public boolean isFullReplace() {
+            return mFullReplace;
+        }
+
+        public int getReplacedCount() {
+            return mReplacedCount;
+        }
+
+        public List<T> getHead() {
+            return mHead;
+        }
+
+        public int getChangedCount() {
+            return mChangedCount;
+        }
+
+        /**
+         * 被替换范围之后、已移到新的第一页中的行，需从保留的数据中移除
+         */
+        public int[] getRemovedPositions() {
+            return mRemoved;
+        }
+
+        /**
+         * 旧数据位置对应的新位置，用于保持锚点行不动，已删除的行对应其后第一个保留的行
+         *
+         * @param oldPosition
+         */
+        public int mapPosition(int oldPosition) {
+            if (mFullReplace || oldPosition < 0) {
+                return 0;
+            }
+            if (oldPosition >= mReplacedCount) {
+                return oldPosition - mReplacedCount + mHead.size()
+                        - countRemovedBefore(oldPosition);
+            }
+            for (int i = oldPosition; i < mReplacedCount; i++) {
+                if (mHeadMap[i] >= 0) {
+                    return mHeadMap[i];
+                }
+            }
+            return mHead.size();
+        }
+
+        /**
+         * 位置小于oldPosition的已移除行数
+         */
+        private int countRemovedBefore(int oldPosition) {
+            int low = 0;
+            int high = mRemoved.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mRemoved[mid] < oldPosition) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * 提供数据的稳定id及内容比较
+     */
+    public interface ItemCallback<T> {
+
+        public long getItemId(T item);
+
+        public boolean areContentsTheSame(T oldItem, T newItem);
+    }
+}
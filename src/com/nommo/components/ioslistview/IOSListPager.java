@@ -0,0 +1,1070 @@
+package com.lightinthebox.android.view;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * IOSListView的分页加载引擎，负责记录页码/游标、页大小及正在进行中的请求，
+ * 在后台线程加载数据并在主线程回调结果，保证同一页不会被重复请求
+ *
+ * @param <K> 页码或游标类型
+ * @param <T> 数据项类型
+ */
+public class IOSListPager<K, T> {
+
+    /** 默认每页数量. */
+    public final static int DEFAULT_PAGE_SIZE = 20;
+
+    /** 可见区域停留该时间后才加载其中被释放或未加载的页，快速滑过的页不会被加载. */
+    private final static long RELOAD_DELAY_MILLIS = 150;
+
+    /** 所有Pager默认共用的后台线程池. */
+    private static ExecutorService sDefaultExecutor;
+
+    /** 数据源，在后台线程中调用. */
+    private final PageSource<K, T> mSource;
+
+    /** 第一页的页码/游标，刷新时使用. */
+    private final K mInitialKey;
+
+    /** 每页数量. */
+    private final int mPageSize;
+
+    /** 加载结果回调，运行在主线程. */
+    private PageCallback<K, T> mCallback;
+
+    /** 按页存储的数据，设置后加载结果先写入其中再回调. */
+    private IOSPagedList<K, T> mPagedList;
+
+    /** 设置后刷新结果在后台线程与当前数据比较，只替换有变化的头部数据. */
+    private IOSListDiff.ItemCallback<T> mDiffCallback;
+
+    /** 绑定的ListView，用于复位header/footer状态. */
+    private IOSListView mListView;
+
+    private Executor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** 下一页的页码/游标. */
+    private K mNextKey;
+
+    /** 是否已加载完全部数据. */
+    private boolean mNoMoreData = false;
+
+    /** 更早一页的页码/游标，为null时表示没有更早的数据. */
+    private K mPrevKey;
+
+    /** 当前的刷新代数. */
+    private int mGeneration = 0;
+
+    /** 正在进行的刷新请求. */
+    private IOSRequestToken mRefreshToken;
+
+    /** 正在进行中的请求. */
+    private final List<LoadParams<K>> mInFlight = new ArrayList<LoadParams<K>>();
+
+    /** 已提交但还没有开始执行的请求，后台线程按优先级取出. */
+    private final List<PendingLoad<K, T>> mPending = new ArrayList<PendingLoad<K, T>>();
+
+    /** 第一页的本地缓存，启动时先显示缓存再刷新. */
+    private IOSFilePageCache<K, T> mPageCache;
+
+    /** 已知总数时每一页的页码/游标，为null时只能在末尾追加. */
+    private PageKeys<K> mPageKeys;
+
+    /** 恢复状态时未同步读取的页，重新加载时先在后台线程读取缓存. */
+    private final HashSet<K> mRestoredKeys = new HashSet<K>();
+
+    /** 等待可见区域稳定后加载的页. */
+    private final List<K> mPendingReloads = new ArrayList<K>();
+
+    private final Runnable mFlushReloads = new Runnable() {
+        @Override
+        public void run() {
+            flushReloads();
+        }
+    };
+
+    public IOSListPager(PageSource<K, T> source, K initialKey) {
+        this(source, initialKey, DEFAULT_PAGE_SIZE);
+    }
+
+    public IOSListPager(PageSource<K, T> source, K initialKey, int pageSize) {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        mSource = source;
+        mInitialKey = initialKey;
+        mNextKey = initialKey;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * 设置加载结果回调，通常由Adapter实现，用于追加或替换数据
+     *
+     * @param callback
+     */
+    public void setPageCallback(PageCallback<K, T> callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 设置按页存储的数据，被释放的页滑回可见区域时自动重新加载
+     *
+     * @param pagedList
+     */
+    public void setPagedList(IOSPagedList<K, T> pagedList) {
+        if (mPagedList != null) {
+            mPagedList.setPageLoader(null);
+        }
+        mPagedList = pagedList;
+        if (mPagedList != null) {
+            if (mDiffCallback != null) {
+                mPagedList.setItemCallback(mDiffCallback);
+            }
+            mPagedList.setPageLoader(new IOSPagedList.PageLoader<K>() {
+                @Override
+                public void onPageNeeded(K key) {
+                    scheduleReload(key);
+                }
+            });
+        }
+    }
+
+    public IOSPagedList<K, T> getPagedList() {
+        return mPagedList;
+    }
+
+    /**
+     * 启用刷新比较：刷新返回的第一页在后台线程中按id与当前数据比较，
+     * 只替换重叠部分之前的数据并保持锚点行的位置，需配合setPagedList使用，
+     * 并在加载数据之前设置
+     *
+     * @param callback 为null时关闭，刷新时替换全部数据
+     */
+    public void setRefreshDiff(IOSListDiff.ItemCallback<T> callback) {
+        mDiffCallback = callback;
+        if (mPagedList != null) {
+            mPagedList.setItemCallback(callback);
+        }
+    }
+
+    /**
+     * 设置本地缓存，刷新成功后第一页会在后台线程写入缓存
+     *
+     * @param cache
+     */
+    public void setPageCache(IOSFilePageCache<K, T> cache) {
+        mPageCache = cache;
+    }
+
+    public IOSFilePageCache<K, T> getPageCache() {
+        return mPageCache;
+    }
+
+    /**
+     * 同步读取缓存的第一页并回调onPageLoaded，参数类型为TYPE_CACHE，
+     * 之后应调用refresh重新加载，设置了setRefreshDiff时只替换有变化的部分
+     *
+     * @return 缓存的保存时间，没有可用的缓存时返回-1
+     */
+    public long loadCachedFirstPage() {
+        if (mPageCache == null) {
+            return -1;
+        }
+        IOSFilePageCache.Entry<K, T> entry = mPageCache.get(mInitialKey);
+        if (entry == null) {
+            return -1;
+        }
+        Page<K, T> page = entry.page;
+        mNextKey = page.nextKey;
+        mNoMoreData = page.nextKey == null;
+        mPrevKey = page.prevKey;
+        mRestoredKeys.clear();
+        if (mPagedList != null) {
+            mPagedList.clear();
+            mPagedList.appendPage(mInitialKey, page.items);
+        }
+        if (mCallback != null) {
+            mCallback.onPageLoaded(new LoadParams<K>(LoadParams.TYPE_CACHE,
+                    mInitialKey, mPageSize, new IOSRequestToken(mGeneration)),
+                    page);
+        }
+        return entry.savedTime;
+    }
+
+    /**
+     * 保存每一页的页码/游标、行数及刷新后需要跳过/去掉的行，以及下一页位置，
+     * 用于界面重建或进程被回收后恢复，需设置本地缓存。超出大小限制时只保存前面的页，
+     * 恢复后从第一个未保存的页继续加载
+     *
+     * @param maxBytes 大小上限
+     * @return 没有设置缓存、已知总数或没有数据时返回null
+     */
+    byte[] saveState(int maxBytes) {
+        if (mPageCache == null || mPageKeys != null || mPagedList == null
+                || mPagedList.getPageCount() == 0) {
+            return null;
+        }
+        IOSFilePageCache.Codec<K, T> codec = mPageCache.getCodec();
+        try {
+            ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+            DataOutputStream pageOut = new DataOutputStream(pageBytes);
+            K nextKey = mNextKey;
+            boolean noMoreData = mNoMoreData;
+            int count = 0;
+            int length = 0;
+            for (int i = 0, pages = mPagedList.getPageCount(); i < pages; i++) {
+                K key = mPagedList.getPageKey(i);
+                codec.writeKey(pageOut, key);
+                pageOut.writeInt(mPagedList.getPageRowCount(i));
+                pageOut.writeInt(mPagedList.getPageSkip(i));
+                Set<Long> removed = mPagedList.getPageRemovedIds(i);
+                pageOut.writeInt(removed == null ? 0 : removed.size());
+                if (removed != null) {
+                    for (long id : removed) {
+                        pageOut.writeLong(id);
+                    }
+                }
+                pageOut.flush();
+                if (pageBytes.size() > maxBytes) {
+                    // 超出上限，恢复后从该页继续加载
+                    nextKey = key;
+                    noMoreData = false;
+                    break;
+                }
+                count++;
+                length = pageBytes.size();
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeBoolean(noMoreData);
+            out.writeBoolean(nextKey != null);
+            if (nextKey != null) {
+                codec.writeKey(out, nextKey);
+            }
+            out.writeBoolean(mPrevKey != null);
+            if (mPrevKey != null) {
+                codec.writeKey(out, mPrevKey);
+            }
+            out.writeInt(count);
+            out.write(pageBytes.toByteArray(), 0, length);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 恢复saveState保存的页：只同步读取锚点所在页及前后各一页的缓存，
+     * 其余页作为未加载的页恢复，可见时在后台线程从缓存读取，缓存中没有时再通过PageSource加载。
+     * 同步读取的页以TYPE_CACHE类型回调onPageLoaded
+     *
+     * @param state saveState的返回值
+     * @param anchorPosition 恢复后第一个可见的数据行，未知时为-1
+     * @return 恢复的页数
+     */
+    int restoreState(byte[] state, int anchorPosition) {
+        if (state == null || mPageCache == null || mPageKeys != null
+                || mPagedList == null) {
+            return 0;
+        }
+        IOSFilePageCache.Codec<K, T> codec = mPageCache.getCodec();
+        boolean noMoreData;
+        K nextKey;
+        K prevKey;
+        int count;
+        ArrayList<K> keys;
+        int[] sizes;
+        int[] skips;
+        ArrayList<Set<Long>> removed;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    state));
+            noMoreData = in.readBoolean();
+            nextKey = in.readBoolean() ? codec.readKey(in) : null;
+            prevKey = in.readBoolean() ? codec.readKey(in) : null;
+            count = in.readInt();
+            keys = new ArrayList<K>(count);
+            sizes = new int[count];
+            skips = new int[count];
+            removed = new ArrayList<Set<Long>>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(codec.readKey(in));
+                sizes[i] = in.readInt();
+                skips[i] = in.readInt();
+                int removedCount = in.readInt();
+                HashSet<Long> ids = null;
+                if (removedCount > 0) {
+                    ids = new HashSet<Long>(removedCount * 2);
+                    for (int k = 0; k < removedCount; k++) {
+                        ids.add(in.readLong());
+                    }
+                }
+                removed.add(ids);
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        mNextKey = nextKey;
+        mNoMoreData = noMoreData;
+        mPrevKey = prevKey;
+        mRestoredKeys.clear();
+        mPagedList.clear();
+        for (int i = 0; i < count; i++) {
+            mPagedList.appendPlaceholder(keys.get(i), sizes[i], skips[i],
+                    removed.get(i));
+            if (skips[i] == 0) {
+                mRestoredKeys.add(keys.get(i));
+            }
+        }
+
+        // 只同步读取锚点附近的页，刷新后被截断的旧第一页在缓存中已被新的第一页覆盖，不从缓存读取
+        int anchorPage = anchorPosition >= 0
+                && anchorPosition < mPagedList.size() ? mPagedList
+                .findPage(anchorPosition) : 0;
+        int from = Math.max(0, anchorPage - 1);
+        int to = Math.min(count - 1, anchorPage + 1);
+        for (int i = from; i <= to; i++) {
+            if (skips[i] != 0) {
+                continue;
+            }
+            IOSFilePageCache.Entry<K, T> entry = mPageCache.get(keys.get(i));
+            if (entry == null) {
+                continue;
+            }
+            mPagedList.replacePageAt(i, entry.page.items);
+            if (mCallback != null) {
+                mCallback.onPageLoaded(new LoadParams<K>(LoadParams.TYPE_CACHE,
+                        keys.get(i), mPageSize, new IOSRequestToken(
+                                mGeneration)), entry.page);
+            }
+        }
+
+        // 以锚点作为可见区域，锚点附近没能从缓存读取的页（包括合并刷新后被截断的旧第一页，
+        // 其页码/游标与已从缓存读取的第一页相同）立即进入重新加载，不必等到滚动
+        int anchor = anchorPosition >= 0 && anchorPosition < mPagedList.size() ? anchorPosition
+                : 0;
+        mPagedList.onVisibleRangeChanged(anchor, anchor);
+        return count;
+    }
+
+    /**
+     * 服务端返回总数后调用，列表一次显示全部长度，未加载的页显示占位行，
+     * 只加载可见区域停留的页，不再上拉加载更多。需配合setPagedList使用，调用后需刷新Adapter
+     *
+     * @param totalCount 总行数
+     * @param keys 根据页序号返回页码/游标
+     */
+    public void setTotalCount(int totalCount, PageKeys<K> keys) {
+        if (mPagedList == null) {
+            throw new IllegalStateException("setTotalCount requires a paged list");
+        }
+        if (keys == null) {
+            throw new IllegalArgumentException("keys must not be null");
+        }
+        mPageKeys = keys;
+        int pageCount = (totalCount + mPageSize - 1) / mPageSize;
+        ArrayList<K> pageKeys = new ArrayList<K>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            pageKeys.add(keys.getKey(i));
+        }
+        mPagedList.initSparse(pageKeys, totalCount, mPageSize);
+
+        // 不再追加，正在进行的加载更多已没有意义
+        mNoMoreData = true;
+        mNextKey = null;
+        for (int i = mInFlight.size() - 1; i >= 0; i--) {
+            LoadParams<K> params = mInFlight.get(i);
+            if (params.type == LoadParams.TYPE_APPEND) {
+                mInFlight.remove(i);
+                params.token.cancel();
+            }
+        }
+        // 被取消的加载更多不会再回调，footer直接复位为没有更多数据
+        if (mListView != null) {
+            mListView.onPagerResult(false, true, false);
+        }
+    }
+
+    /**
+     * 是否已通过setTotalCount设置总数
+     */
+    public boolean isSparse() {
+        return mPageKeys != null;
+    }
+
+    /**
+     * 设置执行加载的线程池，不设置时使用共享的后台线程池
+     *
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    public K getNextKey() {
+        return mNextKey;
+    }
+
+    /**
+     * 是否还有更多数据可以加载
+     */
+    public boolean hasMore() {
+        return !mNoMoreData;
+    }
+
+    /**
+     * 是否还有更早的数据可以加载
+     */
+    public boolean hasPrevious() {
+        return mPrevKey != null;
+    }
+
+    /**
+     * 是否有请求正在进行
+     */
+    public boolean isLoading() {
+        return !mInFlight.isEmpty();
+    }
+
+    /**
+     * 刷新请求是否正在进行
+     */
+    public boolean isRefreshing() {
+        for (LoadParams<K> params : mInFlight) {
+            if (params.type == LoadParams.TYPE_REFRESH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 加载更多请求是否正在进行
+     */
+    public boolean isLoadingMore() {
+        for (LoadParams<K> params : mInFlight) {
+            if (params.type == LoadParams.TYPE_APPEND) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 加载更早数据的请求是否正在进行
+     */
+    public boolean isLoadingPrevious() {
+        for (LoadParams<K> params : mInFlight) {
+            if (params.type == LoadParams.TYPE_PREPEND) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 由IOSListView.setPager调用
+     */
+    void attach(IOSListView listView) {
+        mListView = listView;
+    }
+
+    IOSListView getListView() {
+        return mListView;
+    }
+
+    /**
+     * 加载下一页，已有相同请求在进行或没有更多数据时直接返回false
+     */
+    public boolean loadNext() {
+        return loadNext(new IOSRequestToken(mGeneration));
+    }
+
+    /**
+     * 加载下一页，token被取消后结果会被丢弃
+     *
+     * @param token 由IOSListView创建，与刷新请求共用同一代数
+     */
+    public boolean loadNext(IOSRequestToken token) {
+        if (mNoMoreData || mRefreshToken != null) {
+            return false;
+        }
+        return enqueue(new LoadParams<K>(LoadParams.TYPE_APPEND, mNextKey,
+                mPageSize, token));
+    }
+
+    /**
+     * 加载更早的一页并插入到最前面，没有更早的数据或正在刷新时返回false
+     *
+     * @param token 由IOSListView创建，与刷新请求共用同一代数
+     */
+    public boolean loadPrevious(IOSRequestToken token) {
+        if (mPrevKey == null || mRefreshToken != null || mPageKeys != null) {
+            return false;
+        }
+        return enqueue(new LoadParams<K>(LoadParams.TYPE_PREPEND, mPrevKey,
+                mPageSize, token));
+    }
+
+    /**
+     * 从第一页重新加载
+     */
+    public boolean refresh() {
+        return refresh(new IOSRequestToken(mGeneration + 1));
+    }
+
+    /**
+     * 从第一页重新加载，正在进行的刷新及加载更多请求会被取消
+     *
+     * @param token 由IOSListView创建
+     */
+    public boolean refresh(IOSRequestToken token) {
+        mGeneration = Math.max(mGeneration, token.getGeneration());
+        for (int i = mInFlight.size() - 1; i >= 0; i--) {
+            LoadParams<K> params = mInFlight.get(i);
+            if (params.type != LoadParams.TYPE_RELOAD) {
+                mInFlight.remove(i);
+                params.token.cancel();
+            }
+        }
+        mRefreshToken = token;
+        return enqueue(new LoadParams<K>(LoadParams.TYPE_REFRESH, mInitialKey,
+                mPageSize, token));
+    }
+
+    /**
+     * 取消所有正在进行的请求
+     */
+    public void cancelAll() {
+        for (LoadParams<K> params : mInFlight) {
+            params.token.cancel();
+        }
+        mInFlight.clear();
+        mRefreshToken = null;
+        mPendingReloads.clear();
+        mMainHandler.removeCallbacks(mFlushReloads);
+    }
+
+    /**
+     * 重新加载已被释放的页
+     */
+    boolean reload(K key) {
+        return enqueue(new LoadParams<K>(LoadParams.TYPE_RELOAD, key,
+                mPageSize, new IOSRequestToken(mGeneration)));
+    }
+
+    /**
+     * 可见区域停留一段时间后再加载，快速滑动时请求会被推迟
+     */
+    private void scheduleReload(K key) {
+        if (!mPendingReloads.contains(key)) {
+            mPendingReloads.add(key);
+        }
+        mMainHandler.removeCallbacks(mFlushReloads);
+        mMainHandler.postDelayed(mFlushReloads, RELOAD_DELAY_MILLIS);
+    }
+
+    /**
+     * 加载仍在可见区域附近的页，已滑过的页直接丢弃
+     */
+    private void flushReloads() {
+        for (K key : mPendingReloads) {
+            if (mPagedList != null && mPagedList.isPageNeeded(key)) {
+                reload(key);
+            }
+        }
+        mPendingReloads.clear();
+    }
+
+    /**
+     * IOSListView滚动时调用，参数为去掉header后的数据位置
+     */
+    void onVisibleRangeChanged(int first, int last) {
+        if (mPagedList != null && mPagedList.onVisibleRangeChanged(first, last)) {
+            updatePriorities();
+        }
+    }
+
+    /**
+     * 可见区域变化后调整重新加载请求的优先级，已离开可见区域附近的请求直接取消
+     */
+    private void updatePriorities() {
+        for (int i = mInFlight.size() - 1; i >= 0; i--) {
+            LoadParams<K> params = mInFlight.get(i);
+            if (params.type != LoadParams.TYPE_RELOAD) {
+                continue;
+            }
+            int distance = mPagedList.getPageDistance(params.key);
+            if (distance < 0 || distance > 1) {
+                mInFlight.remove(i);
+                params.token.cancel();
+                synchronized (mPending) {
+                    for (int k = mPending.size() - 1; k >= 0; k--) {
+                        if (mPending.get(k).params == params) {
+                            mPending.remove(k);
+                        }
+                    }
+                }
+            } else {
+                params.priority = priorityOf(distance);
+            }
+        }
+    }
+
+    /**
+     * 根据与可见区域相隔的页数计算优先级
+     */
+    private static int priorityOf(int distance) {
+        if (distance == 0) {
+            return LoadParams.PRIORITY_VISIBLE;
+        }
+        if (distance == 1) {
+            return LoadParams.PRIORITY_NEARBY;
+        }
+        return LoadParams.PRIORITY_LOW;
+    }
+
+    private boolean enqueue(final LoadParams<K> params) {
+        for (LoadParams<K> running : mInFlight) {
+            if (running.type == params.type && equal(running.key, params.key)) {
+                return false;
+            }
+        }
+        mInFlight.add(params);
+
+        // 刷新时在主线程记录当前数据，加载完成后在后台线程中比较
+        final Snapshot<T> snapshot = params.type == LoadParams.TYPE_REFRESH ? takeSnapshot()
+                : null;
+        if (params.type == LoadParams.TYPE_RELOAD && mPagedList != null) {
+            params.priority = priorityOf(mPagedList.getPageDistance(params.key));
+            params.fromCache = mPageCache != null
+                    && mRestoredKeys.contains(params.key)
+                    && mPagedList.getReloadSkip(params.key) == 0;
+        }
+
+        // 每个请求提交一次，线程空闲时取出当前优先级最高的请求执行
+        synchronized (mPending) {
+            mPending.add(new PendingLoad<K, T>(params, snapshot));
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingLoad<K, T> next = pollPending();
+                if (next != null) {
+                    load(next.params, next.snapshot);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 取出优先级最高的请求，相同优先级时先提交的先执行
+     */
+    private PendingLoad<K, T> pollPending() {
+        synchronized (mPending) {
+            int best = -1;
+            for (int i = 0; i < mPending.size(); i++) {
+                if (best < 0
+                        || mPending.get(i).params.priority < mPending
+                                .get(best).params.priority) {
+                    best = i;
+                }
+            }
+            return best < 0 ? null : mPending.remove(best);
+        }
+    }
+
+    /**
+     * 在后台线程中加载，结果发送到主线程
+     */
+    private void load(final LoadParams<K> params, final Snapshot<T> snapshot) {
+        Page<K, T> page = null;
+        IOSListDiff.Result<T> diff = null;
+        Exception error = null;
+        try {
+            // 已取消的请求不再加载，但仍需回到主线程从mInFlight中移除
+            if (params.token.isCancelled()) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(params, null, null, null, null);
+                    }
+                });
+                return;
+            }
+            if (params.fromCache) {
+                IOSFilePageCache.Entry<K, T> entry = mPageCache.get(params.key);
+                if (entry != null) {
+                    page = entry.page;
+                } else {
+                    // 缓存已失效，通过PageSource加载，结果需重新写入缓存
+                    params.fromCache = false;
+                }
+            }
+            if (page == null) {
+                page = mSource.loadPage(params);
+            }
+            if (page == null) {
+                error = new IllegalStateException("loadPage returned null");
+            } else if (snapshot != null) {
+                diff = IOSListDiff.compute(snapshot.ids,
+                        snapshot.items, page.items, snapshot.callback);
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+        final Page<K, T> result = page;
+        final IOSListDiff.Result<T> refreshDiff = diff;
+        final Exception failure = error;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(params, result, failure, refreshDiff, snapshot);
+            }
+        });
+    }
+
+    private void saveToCache(final K key, final Page<K, T> page) {
+        final IOSFilePageCache<K, T> cache = mPageCache;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.put(key, page);
+            }
+        });
+    }
+
+    /**
+     * 记录当前数据，未设置setRefreshDiff或还没有数据时返回null
+     */
+    private Snapshot<T> takeSnapshot() {
+        if (mPagedList == null || mDiffCallback == null || mPageKeys != null
+                || mPagedList.size() == 0) {
+            return null;
+        }
+        long[] ids = mPagedList.snapshotIds();
+        if (ids == null) {
+            return null;
+        }
+        return new Snapshot<T>(ids, mPagedList.snapshotItems(),
+                mPagedList.getModCount(), mDiffCallback);
+    }
+
+    /**
+     * 主线程中分发加载结果
+     */
+    private void deliver(LoadParams<K> params, Page<K, T> page,
+            Exception error, IOSListDiff.Result<T> diff, Snapshot<T> snapshot) {
+        mInFlight.remove(params);
+        if (params.token == mRefreshToken) {
+            mRefreshToken = null;
+        }
+
+        // 已被取消的请求直接丢弃，ListView在取消时已复位状态
+        if (params.token.isCancelled()) {
+            if (mListView != null && params.type == LoadParams.TYPE_PREPEND) {
+                // 取消期间新发起的加载更早数据请求因重复被拒绝，需重新发起
+                mListView.onPrependCancelled();
+            }
+            return;
+        }
+
+        if (error == null) {
+            if (diff != null
+                    && mPagedList.getModCount() != snapshot.modCount) {
+                // 后台比较期间数据有变化，重新比较
+                Snapshot<T> current = takeSnapshot();
+                diff = current == null ? null : IOSListDiff.compute(
+                        current.ids, current.items, page.items,
+                        current.callback);
+            }
+            boolean merged = diff != null && !diff.isFullReplace();
+
+            // 只替换了头部数据时，保留的旧数据之后的页码/游标不变
+            if (mPageKeys == null
+                    && (params.type == LoadParams.TYPE_APPEND
+                            || (params.type == LoadParams.TYPE_REFRESH && !merged))) {
+                mNextKey = page.nextKey;
+                mNoMoreData = page.nextKey == null;
+            }
+            if (params.type == LoadParams.TYPE_PREPEND
+                    || (params.type == LoadParams.TYPE_REFRESH && !merged)) {
+                mPrevKey = page.prevKey;
+            }
+            if (mPagedList != null) {
+                if (merged) {
+                    mPagedList.applyRefresh(params.key, diff);
+                } else if (params.type == LoadParams.TYPE_REFRESH
+                        && mPageKeys != null) {
+                    // 已知总数时保留全部长度，其余可见的页重新加载
+                    mPagedList.evictAll();
+                    mPagedList.replacePage(params.key, page.items);
+                    mPagedList.loadVisiblePages();
+                } else if (params.type == LoadParams.TYPE_REFRESH) {
+                    mPagedList.clear();
+                    mPagedList.appendPage(params.key, page.items);
+                } else if (params.type == LoadParams.TYPE_APPEND) {
+                    mPagedList.appendPage(params.key, page.items);
+                } else if (params.type == LoadParams.TYPE_PREPEND) {
+                    mPagedList.prependPage(params.key, page.items);
+                } else {
+                    mPagedList.replacePage(params.key, page.items);
+                }
+            }
+            // 所有加载的页都写入缓存，用于启动时显示及恢复状态
+            if (mPageCache != null && !params.fromCache) {
+                saveToCache(params.key, page);
+            }
+            if (params.type == LoadParams.TYPE_RELOAD) {
+                mRestoredKeys.remove(params.key);
+            } else if (params.type == LoadParams.TYPE_REFRESH && !merged) {
+                mRestoredKeys.clear();
+            }
+            if (mCallback != null) {
+                mCallback.onPageLoaded(params, page);
+            }
+            if (merged && mListView != null) {
+                mListView.keepAnchor(diff);
+            }
+        } else if (mCallback != null) {
+            mCallback.onPageFailed(params, error);
+        }
+
+        if (mListView != null && params.type == LoadParams.TYPE_PREPEND) {
+            mListView.onPrependResult(error == null ? page.items.size() : 0);
+        } else if (mListView != null && params.type != LoadParams.TYPE_RELOAD) {
+            mListView.onPagerResult(params.type == LoadParams.TYPE_REFRESH,
+                    error == null, hasMore());
+        }
+    }
+
+    Executor getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = getDefaultExecutor();
+        }
+        return mExecutor;
+    }
+
+    static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newFixedThreadPool(2,
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, "IOSListPager #" + mCount.getAndIncrement());
+                        }
+                    });
+        }
+        return sDefaultExecutor;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * 已提交但还没有开始执行的请求
+     */
+    private static class PendingLoad<K, T> {
+
+        final LoadParams<K> params;
+
+        final Snapshot<T> snapshot;
+
+        PendingLoad(LoadParams<K> params, Snapshot<T> snapshot) {
+            this.params = params;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * 刷新开始时记录的数据
+     */
+    private static class Snapshot<T> {
+
+        final long[] ids;
+
+        final List<T> items;
+
+        final int modCount;
+
+        final IOSListDiff.ItemCallback<T> callback;
+
+        Snapshot(long[] ids, List<T> items, int modCount,
+                IOSListDiff.ItemCallback<T> callback) {
+            this.ids = ids;
+            this.items = items;
+            this.modCount = modCount;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * 一次加载请求的参数
+     */
+    public static class LoadParams<K> {
+
+        /** 下拉刷新，从第一页加载. */
+        public final static int TYPE_REFRESH = 0;
+
+        /** 上拉加载更多. */
+        public final static int TYPE_APPEND = 1;
+
+        /** 重新加载已被释放的页. */
+        public final static int TYPE_RELOAD = 2;
+
+        /** 加载更早的一页，插入到最前面. */
+        public final static int TYPE_PREPEND = 3;
+
+        /** 从本地缓存读取的第一页. */
+        public final static int TYPE_CACHE = 4;
+
+        /** 当前可见的页，以及刷新、加载更多等用户正在等待的请求. */
+        public final static int PRIORITY_VISIBLE = 0;
+
+        /** 可见区域前后相邻的页. */
+        public final static int PRIORITY_NEARBY = 1;
+
+        /** 其他页. */
+        public final static int PRIORITY_LOW = 2;
+
+        public final int type;
+
+        public final K key;
+
+        public final int pageSize;
+
+        /** 请求被取消时网络层可以提前中止，见IOSRequestToken.addCancelListener. */
+        public final IOSRequestToken token;
+
+        /** 滑动时在主线程中更新，数值越小越优先. */
+        volatile int priority = PRIORITY_VISIBLE;
+
+        /** 恢复状态后的重新加载，先从本地缓存读取，缓存中没有时在后台线程中改为false. */
+        volatile boolean fromCache;
+
+        LoadParams(int type, K key, int pageSize, IOSRequestToken token) {
+            this.type = type;
+            this.key = key;
+            this.pageSize = pageSize;
+            this.token = token;
+        }
+
+        /**
+         * 当前优先级，可在任意线程中调用，网络层可据此调整请求顺序，
+         * 请求离开可见区域附近时会被取消
+         */
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * 一页数据
+     */
+    public static class Page<K, T> {
+
+        public final List<T> items;
+
+        /** 下一页的页码/游标，为null时表示没有更多数据. */
+        public final K nextKey;
+
+        /** 更早一页的页码/游标，为null时表示没有更早的数据. */
+        public final K prevKey;
+
+        public Page(List<T> items, K nextKey) {
+            this(items, nextKey, null);
+        }
+
+        public Page(List<T> items, K nextKey, K prevKey) {
+            this.items = items;
+            this.nextKey = nextKey;
+            this.prevKey = prevKey;
+        }
+    }
+
+    /**
+     * 数据源，实现该接口完成分页数据的加载
+     */
+    public interface PageSource<K, T> {
+
+        /**
+         * 在后台线程中调用，返回一页数据，params.token被取消后返回的结果会被丢弃
+         *
+         * @param params
+         */
+        public Page<K, T> loadPage(LoadParams<K> params) throws Exception;
+    }
+
+    /**
+     * 已知总数时根据页序号返回页码/游标
+     */
+    public interface PageKeys<K> {
+
+        /**
+         * @param pageIndex 从0开始的页序号
+         */
+        public K getKey(int pageIndex);
+    }
+
+    /**
+     * 加载结果回调，运行在主线程
+     */
+    public interface PageCallback<K, T> {
+
+        /**
+         * 加载成功，刷新时替换数据，加载更多时追加数据，设置了IOSPagedList时数据已写入其中
+         */
+        public void onPageLoaded(LoadParams<K> params, Page<K, T> page);
+
+        /**
+         * 加载失败
+         */
+        public void onPageFailed(LoadParams<K> params, Exception e);
+    }
+}
@@ -1,27 +1,40 @@
 package com.lightinthebox.android.view;
 
+import java.lang.ref.WeakReference;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
 import android.content.Context;
+import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewParent;
 import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
-import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
 import android.view.animation.RotateAnimation;
 import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
-import android.widget.Scroller;
 import android.widget.TextView;
+import android.widget.WrapperListAdapter;
 
 import com.lightinthebox.android.R;
 
@@ -34,8 +47,11 @@ public class IOSListView extends ListView implements OnScrollListener {
 
     private float mLastY = -1; 
 
-    /** 用于下拉后回滚. */
-    private Scroller mScroller;
+    /** 松手后header回弹，与footer回弹互不影响. */
+    private IOSSettleAnimator mHeaderSettle;
+
+    /** 松手后footer回弹. */
+    private IOSSettleAnimator mFooterSettle;
 
     /** 滚动. */
     private OnScrollListener mScrollListener;
@@ -43,17 +59,59 @@ public class IOSListView extends ListView implements OnScrollListener {
     /** 调用者实现该接口完成上拉及下拉功能回调. */
     private IOSListViewListener mListViewListener;
 
+    /** 带请求标识的回调，设置后优先于mListViewListener. */
+    private IOSListViewRequestListener mRequestListener;
+
+    /** 当前刷新代数，刷新与加载更多共用，每次刷新加1. */
+    private int mGeneration = 0;
+
+    /** 正在进行的刷新请求. */
+    private IOSRequestToken mRefreshToken;
+
+    /** 正在进行的加载更多请求. */
+    private IOSRequestToken mLoadMoreToken;
+
+    /** 等待下一帧统一通知数据变化的Adapter. */
+    private final ArrayList<BaseAdapter> mPendingNotify = new ArrayList<BaseAdapter>();
+
+    /** 数据变化通知后同一帧内复位加载更多状态. */
+    private boolean mPendingStopLoadMore;
+
+    private boolean mPendingNoMoreData;
+
+    private boolean mUpdateFramePosted;
+
+    private final Runnable mUpdateFrameRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            applyPendingUpdates();
+        }
+    };
+
+    /** 是否在滑动到顶部附近时加载更早的数据. */
+    private boolean mEnableLoadPrevious = false;
+
+    /** 正在进行的加载更早数据请求，为null时表示没有. */
+    private IOSRequestToken mLoadPreviousToken;
+
+    private IOSListViewPreviousListener mPreviousListener;
+
+    /** 已没有更早的数据，刷新或重新启用后才会再次加载. */
+    private boolean mNoMorePrevious;
+
+    /** 加载更早数据失败后的等待时间，每次失败加倍. */
+    private long mPreviousRetryDelay;
+
+    /** 在该时间之前不再自动加载更早的数据，SystemClock.uptimeMillis(). */
+    private long mPreviousRetryTime;
+
     /** header，显示下拉刷新. */
     private IOSListViewHeader mHeaderView;
 
-    /** 用来计算header的高度，onTouch中会依赖于该高度判断是否触发下拉刷新. */
-    private RelativeLayout mHeaderViewContent;
-
+    /** header内容的高度，onTouch中会依赖于该高度判断是否触发下拉刷新，header内容加载后才会计算. */
     private int mHeaderViewHeight;
 
-    /** 类似于IOS，显示最后一次更新时间. */
-    private TextView mHeaderTimeView;
-
     /** 是否启用下拉刷新功能，默认开启. */
     private boolean mEnablePullRefresh = true;
 
@@ -75,23 +133,87 @@ public class IOSListView extends ListView implements OnScrollListener {
     /** 是否预加载更多，启用后，不用滑动到底部自动会加载更多. */
     private boolean mIsPreLoad = true;
 
+    /** 是否根据滑动速度及加载耗时提前预加载，启用后快速滑动时也不会看到footer. */
+    private boolean mIsPrefetch = false;
+
+    /** 计算预加载距离. */
+    private final IOSPrefetchWindow mPrefetchWindow = new IOSPrefetchWindow();
+
     /** 用于检测是否处于底部. */
     private int mTotalItemCount;
 
-    /** 用于解决广告条水平滚动与ListView竖直滚动冲突. */
-    private View mInterceptView;
+    /** 分页加载引擎，设置后由ListView直接驱动刷新及加载更多. */
+    private IOSListPager<?, ?> mPager;
+
+    /** 是否在加载更多时后台预先创建下一页的行. */
+    private boolean mPreInflate;
+
+    private IOSAsyncInflater mAsyncInflater;
+
+    /** 滑动时是否利用主线程空闲时间为下一屏创建行. */
+    private boolean mIdlePrefetch;
+
+    private IOSIdlePrefetcher mIdlePrefetcher;
 
-    private int mScrollBack;
+    /** 上次预取时的最后一个可见行，变化时才重新统计. */
+    private int mIdlePrefetchLast = -1;
 
-    private final static int SCROLLBACK_HEADER = 0;
+    /** 与窗口分离时已把所有行放回IOSHolderAdapter的缓存，重新显示时需要重新布局. */
+    private boolean mViewsReclaimed;
 
-    private final static int SCROLLBACK_FOOTER = 1;
+    /** 本帧累计的下拉/上拉高度，下一帧统一更新header/footer. */
+    private float mPendingHeaderHeight;
+
+    private float mPendingFooterHeight;
+
+    private boolean mPullFramePending;
+
+    private final Runnable mPullFrameRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            applyPendingPull();
+        }
+    };
 
-    private final static int SCROLL_DURATION = 400;
+    /** 用于解决广告条水平滚动与ListView竖直滚动冲突，可以注册多个，弱引用持有，已与窗口分离的自动移除. */
+    private final ArrayList<WeakReference<View>> mInterceptViews = new ArrayList<WeakReference<View>>();
+
+    /** 复用的命中区域，避免每个事件都创建Rect. */
+    private final Rect mInterceptRect = new Rect();
+
+    /** 本次手势是否从InterceptView上开始，只在ACTION_DOWN时计算. */
+    private boolean mInInterceptView;
+
+    /** 下拉时修改header高度，每次移动都会重新布局. */
+    public final static int PULL_RENDER_LAYOUT = 0;
+
+    /** 下拉时只在绘制时平移header及列表内容，不触发measure/layout. */
+    public final static int PULL_RENDER_TRANSLATE = 1;
+
+    private int mPullRenderMode = PULL_RENDER_LAYOUT;
+
+    /** PULL_RENDER_TRANSLATE模式下header的下拉距离. */
+    private int mHeaderOffset;
+
+    /** PULL_RENDER_TRANSLATE模式下footer的上拉距离. */
+    private int mFooterOffset;
+
+    /** PULL_RENDER_TRANSLATE模式下本次手势已用于下拉/上拉，不再传给ListView. */
+    private boolean mPullConsumed;
+
+    /** 保存状态时页码/游标部分的大小上限，避免超出Bundle的限制. */
+    private final static int MAX_SAVED_PAGE_KEYS_BYTES = 8 * 1024;
 
     /** 触发上拉加载更多的阀值. */
     private final static int PULL_LOAD_MORE_DELTA = 50;
 
+    /** 加载更早数据失败后第一次重试的等待时间. */
+    private final static long PREVIOUS_RETRY_MIN_MILLIS = 1000;
+
+    /** 加载更早数据失败后最长的等待时间. */
+    private final static long PREVIOUS_RETRY_MAX_MILLIS = 30 * 1000;
+
     /** 通过这个参数实现类似IOS的阻力效果. */
     private final static float OFFSET_RADIO = 2.2f;
 
@@ -112,21 +234,30 @@ public class IOSListView extends ListView implements OnScrollListener {
 
     private void initWithContext(Context context) {
 
-        mScroller = new Scroller(context, new DecelerateInterpolator());
+        mHeaderSettle = new IOSSettleAnimator(this,
+                new IOSSettleAnimator.Target() {
+
+                    @Override
+                    public void onSettleUpdate(int value) {
+                        setHeaderPullHeight(value);
+                    }
+                });
+        mFooterSettle = new IOSSettleAnimator(this,
+                new IOSSettleAnimator.Target() {
+
+                    @Override
+                    public void onSettleUpdate(int value) {
+                        setFooterPullHeight(value);
+                    }
+                });
 
         super.setOnScrollListener(this);
 
-        // header view，下拉刷新
+        // header view，下拉刷新，内容在第一次下拉时才加载
         mHeaderView = new IOSListViewHeader(context);
-        mHeaderViewContent = (RelativeLayout) mHeaderView
-                .findViewById(R.id.ios_listview_header_content);
-        mHeaderTimeView = (TextView) mHeaderView
-                .findViewById(R.id.ios_listview_header_time);
         addHeaderView(mHeaderView);
-        mHeaderViewContent.setVisibility(mEnablePullRefresh ? View.VISIBLE
-                : View.INVISIBLE);
 
-        // footer vier，下拉加载更多
+        // footer vier，下拉加载更多，内容在添加到ListView时才加载
         mFooterView = new IOSListViewFooter(context);
         mFooterView.setOnClickListener(new OnClickListener() {
             @Override
@@ -137,17 +268,6 @@ public class IOSListView extends ListView implements OnScrollListener {
         if (!mEnablePullLoad) {
             mFooterView.hide();
         }
-
-        // 计算header view的高度
-        mHeaderView.getViewTreeObserver().addOnGlobalLayoutListener(
-                new OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        mHeaderViewHeight = mHeaderViewContent.getHeight();
-                        getViewTreeObserver()
-                                .removeGlobalOnLayoutListener(this);
-                    }
-                });
     }
 
     @Override
@@ -156,12 +276,180 @@ public class IOSListView extends ListView implements OnScrollListener {
         // 解决多次调用setAdapter方法，设置多个footer view问题
         if (!mIsFooterReady) {
             mIsFooterReady = true;
+            if (mEnablePullLoad) {
+                mFooterView.ensureContent();
+            }
             addFooterView(mFooterView);
         }
 
         super.setAdapter(adapter);
     }
 
+    /**
+     * 与窗口分离时ListView会清空自己的回收缓存，使用IOSHolderAdapter时先把所有行放回共用的缓存，
+     * 供同一界面的其他列表使用
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mIdlePrefetcher != null) {
+            mIdlePrefetcher.cancel();
+            mIdlePrefetchLast = -1;
+        }
+        IOSHolderAdapter<?> adapter = getHolderAdapter();
+        if (adapter != null) {
+            ArrayList<View> views = new ArrayList<View>();
+            reclaimViews(views);
+            adapter.recycleViews(views);
+            mViewsReclaimed = true;
+        }
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mViewsReclaimed) {
+            mViewsReclaimed = false;
+            requestLayout();
+        }
+    }
+
+    /**
+     * 是否在加载更多请求进行时，在后台线程预先创建下一页的行，
+     * 需使用IOSHolderAdapter并重写canInflateInBackground及getPreInflateCount
+     * 
+     * @param enable
+     */
+    public void setPreInflateEnable(boolean enable) {
+        mPreInflate = enable;
+        if (!enable && mAsyncInflater != null) {
+            mAsyncInflater.cancel();
+        }
+    }
+
+    /**
+     * 滑动时是否利用主线程空闲时间，为下一屏中当前没有显示的类型提前创建行，
+     * 需使用IOSHolderAdapter
+     * 
+     * @param enable
+     */
+    public void setIdlePrefetchEnable(boolean enable) {
+        mIdlePrefetch = enable;
+        mIdlePrefetchLast = -1;
+        if (!enable && mIdlePrefetcher != null) {
+            mIdlePrefetcher.cancel();
+        }
+    }
+
+    private void idlePrefetch(int firstVisibleItem, int visibleItemCount) {
+        int last = firstVisibleItem + visibleItemCount - 1;
+        if (last == mIdlePrefetchLast) {
+            return;
+        }
+        IOSHolderAdapter<?> adapter = getHolderAdapter();
+        if (adapter == null) {
+            return;
+        }
+        mIdlePrefetchLast = last;
+        if (mIdlePrefetcher == null) {
+            mIdlePrefetcher = new IOSIdlePrefetcher(this);
+        }
+        int headers = getHeaderViewsCount();
+        mIdlePrefetcher.schedule(adapter, firstVisibleItem - headers, last
+                - headers, visibleItemCount);
+    }
+
+    private void preInflateRows() {
+        IOSHolderAdapter<?> adapter = getHolderAdapter();
+        if (adapter == null) {
+            return;
+        }
+        if (mAsyncInflater == null) {
+            mAsyncInflater = new IOSAsyncInflater();
+        }
+        mAsyncInflater.preInflate(adapter, this,
+                mPager != null ? mPager.getExecutor() : IOSListPager
+                        .getDefaultExecutor());
+    }
+
+    /**
+     * 保存上拉加载更多开关、IOSListPager各页的页码/游标及行数、第一个可见数据行的位置，
+     * IOSListPager需设置本地缓存，恢复时只同步读取可见位置附近的页，其余页可见时在后台从缓存读取
+     */
+    @Override
+    public Parcelable onSaveInstanceState() {
+        SavedState ss = new SavedState(super.onSaveInstanceState());
+        ss.enablePullLoad = mEnablePullLoad;
+        ss.anchorPosition = -1;
+        if (mPager != null) {
+            ss.pagerState = mPager.saveState(MAX_SAVED_PAGE_KEYS_BYTES);
+            int headers = getHeaderViewsCount();
+            int first = getFirstVisiblePosition();
+            int index = Math.max(0, headers - first);
+            if (ss.pagerState != null && index < getChildCount()) {
+                ss.anchorPosition = first + index - headers;
+                ss.anchorTop = getChildAt(index).getTop();
+            }
+        }
+        return ss;
+    }
+
+    /**
+     * 需在setPager及setAdapter之后恢复，IOSListPager已有数据时只恢复位置
+     */
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        if (ss.enablePullLoad != mEnablePullLoad) {
+            setPullLoadEnable(ss.enablePullLoad);
+        }
+        if (mPager == null || ss.pagerState == null) {
+            return;
+        }
+        IOSPagedList<?, ?> pagedList = mPager.getPagedList();
+        if (pagedList == null || pagedList.size() == 0) {
+            if (mPager.restoreState(ss.pagerState, ss.anchorPosition) == 0) {
+                return;
+            }
+            if (!mPager.hasMore()) {
+                setNoMoreData();
+            }
+            // 未同步读取的页以占位行显示，没有加载回调，需直接通知行数变化
+            ListAdapter adapter = getAdapter();
+            if (adapter instanceof WrapperListAdapter) {
+                adapter = ((WrapperListAdapter) adapter).getWrappedAdapter();
+            }
+            if (adapter instanceof BaseAdapter) {
+                postDataSetChanged((BaseAdapter) adapter);
+            }
+        }
+
+        // 先通知数据变化，否则位置会被ListView按旧的数据复位
+        applyPendingUpdates();
+        if (ss.anchorPosition >= 0 && mPager.getPagedList() != null
+                && ss.anchorPosition < mPager.getPagedList().size()) {
+            setSelectionFromTop(ss.anchorPosition + getHeaderViewsCount(),
+                    ss.anchorTop);
+        }
+    }
+
+    private IOSHolderAdapter<?> getHolderAdapter() {
+        ListAdapter adapter = getAdapter();
+        if (adapter instanceof WrapperListAdapter) {
+            adapter = ((WrapperListAdapter) adapter).getWrappedAdapter();
+        }
+        if (adapter instanceof IOSHolderAdapter) {
+            return (IOSHolderAdapter<?>) adapter;
+        }
+        return null;
+    }
+
     /**
      * 启用或禁用下拉刷新功能
      * 
@@ -169,8 +457,58 @@ public class IOSListView extends ListView implements OnScrollListener {
      */
     public void setPullRefreshEnable(boolean enable) {
         mEnablePullRefresh = enable;
-        mHeaderViewContent.setVisibility(mEnablePullRefresh ? View.VISIBLE
-                : View.INVISIBLE);
+        mHeaderView.setContentEnabled(enable);
+    }
+
+    /**
+     * 设置下拉/上拉的绘制方式，PULL_RENDER_TRANSLATE模式下下拉距离只作用于绘制时的平移，
+     * 下拉及回弹过程不会触发measure/layout
+     * 
+     * @param mode PULL_RENDER_LAYOUT或PULL_RENDER_TRANSLATE
+     */
+    public void setPullRenderMode(int mode) {
+        if (mode == mPullRenderMode) {
+            return;
+        }
+        mHeaderSettle.cancel();
+        mFooterSettle.cancel();
+        setHeaderPullHeight(0);
+        setFooterPullHeight(0);
+        mPullRenderMode = mode;
+
+        // header本身高度为0，内容固定为完整高度，超出部分依靠平移显示
+        boolean translate = mode == PULL_RENDER_TRANSLATE;
+        mHeaderView.setContentFullHeight(translate);
+        mHeaderView.setClipChildren(!translate);
+        setClipChildren(!translate);
+        if (mPullRefreshing) {
+            setHeaderPullHeight(mHeaderViewHeight);
+        }
+        requestLayout();
+    }
+
+    public int getPullRenderMode() {
+        return mPullRenderMode;
+    }
+
+    /**
+     * 设置松手后header/footer回弹的插值器，默认为DecelerateInterpolator
+     * 
+     * @param interpolator
+     */
+    public void setSettleInterpolator(Interpolator interpolator) {
+        mHeaderSettle.setInterpolator(interpolator);
+        mFooterSettle.setInterpolator(interpolator);
+    }
+
+    /**
+     * 设置松手后header/footer回弹的时长，默认400毫秒
+     * 
+     * @param duration 单位：毫秒
+     */
+    public void setSettleDuration(int duration) {
+        mHeaderSettle.setDuration(duration);
+        mFooterSettle.setDuration(duration);
     }
 
     /**
@@ -182,6 +520,34 @@ public class IOSListView extends ListView implements OnScrollListener {
         this.mIsPreLoad = enable;
     }
 
+    /**
+     * 是否启用按滑动速度预加载，启用后在onScroll中根据当前滑动速度及测得的加载耗时
+     * 计算提前加载的行数，需同时开启预加载
+     * 
+     * @param enable
+     */
+    public void setPrefetchEnable(boolean enable) {
+        this.mIsPrefetch = enable;
+    }
+
+    /**
+     * 设置按滑动速度预加载时最多提前的行数
+     * 
+     * @param rows
+     */
+    public void setPrefetchMaxRows(int rows) {
+        mPrefetchWindow.setMaxRows(rows);
+    }
+
+    /**
+     * footer是否始终占据空间，开启后显示/隐藏footer只切换可见性，不会重新布局
+     * 
+     * @param reserve
+     */
+    public void setFooterReserveSpace(boolean reserve) {
+        mFooterView.setReserveSpace(reserve);
+    }
+
     /**
      * 启用或禁用上拉加载更多功能
      * 
@@ -206,6 +572,7 @@ public class IOSListView extends ListView implements OnScrollListener {
      * 刷新后调用，复位header view
      */
     public void stopRefresh() {
+        mRefreshToken = null;
         if (mPullRefreshing) {
             mPullRefreshing = false;
             resetHeaderHeight();
@@ -216,10 +583,305 @@ public class IOSListView extends ListView implements OnScrollListener {
      * 下拉加载更多后调用，复位footer view
      */
     public void stopLoadMore() {
+        mLoadMoreToken = null;
+        if (mPullLoading) {
+            mPullLoading = false;
+            mPrefetchWindow.onLoadFinished();
+            mFooterView.setState(IOSListViewFooter.STATE_NORMAL);
+            mFooterView.setLoadingVisible(false);
+        }
+    }
+
+    /**
+     * 启用或禁用加载更早数据，启用后滑动到顶部附近时自动加载并插入到最前面，
+     * 当前可见的行保持在屏幕上的位置不变，下拉刷新需另外通过setPullRefreshEnable关闭
+     * 
+     * @param enable
+     */
+    public void setLoadPreviousEnable(boolean enable) {
+        mEnableLoadPrevious = enable;
+        if (!enable) {
+            cancelLoadPrevious();
+        } else {
+            resetLoadPrevious();
+        }
+    }
+
+    public void setIOSListViewPreviousListener(IOSListViewPreviousListener l) {
+        mPreviousListener = l;
+    }
+
+    /**
+     * 更早的数据已插入到Adapter最前面并调用notifyDataSetChanged后调用，
+     * 保持当前可见的行在屏幕上的位置不变
+     * 
+     * @param count 插入的行数，失败时为0，之后一段时间内不再自动加载
+     */
+    public void stopLoadPrevious(int count) {
+        stopLoadPrevious(count, true);
+    }
+
+    /**
+     * 同stopLoadPrevious(int)，hasMore为false时表示已到达最早的数据，
+     * 刷新或重新启用之前不再加载
+     * 
+     * @param count 插入的行数，失败时为0
+     * @param hasMore 是否还有更早的数据
+     */
+    public void stopLoadPrevious(int count, boolean hasMore) {
+        if (mLoadPreviousToken == null) {
+            return;
+        }
+        applyPendingUpdates();
+        mLoadPreviousToken = null;
+        mNoMorePrevious = !hasMore;
+        if (count <= 0) {
+            // 失败或没有数据时等待一段时间再加载，避免每次滚动都发起请求
+            mPreviousRetryDelay = mPreviousRetryDelay == 0 ? PREVIOUS_RETRY_MIN_MILLIS
+                    : Math.min(mPreviousRetryDelay * 2,
+                            PREVIOUS_RETRY_MAX_MILLIS);
+            mPreviousRetryTime = SystemClock.uptimeMillis()
+                    + mPreviousRetryDelay;
+            return;
+        }
+        mPreviousRetryDelay = 0;
+        mPreviousRetryTime = 0;
+        if (getChildCount() == 0) {
+            return;
+        }
+
+        // 以第一个可见的数据行为锚点，header可见时跳过header
+        int headers = getHeaderViewsCount();
+        int first = getFirstVisiblePosition();
+        int index = Math.max(0, headers - first);
+        if (index >= getChildCount()) {
+            return;
+        }
+        int top = getChildAt(index).getTop();
+        setSelectionFromTop(first + index + count, top);
+    }
+
+    private void cancelLoadPrevious() {
+        if (mLoadPreviousToken != null) {
+            mLoadPreviousToken.cancel();
+            mLoadPreviousToken = null;
+        }
+    }
+
+    /**
+     * 清除没有更早数据的标记及失败后的等待
+     */
+    private void resetLoadPrevious() {
+        mNoMorePrevious = false;
+        mPreviousRetryDelay = 0;
+        mPreviousRetryTime = 0;
+    }
+
+    /**
+     * 回调加载更早数据接口，正在加载或刷新时直接返回
+     */
+    private void startLoadPrevious() {
+        if (mLoadPreviousToken != null || mPullRefreshing || mNoMorePrevious) {
+            return;
+        }
+        if (SystemClock.uptimeMillis() < mPreviousRetryTime) {
+            return;
+        }
+        if (mPager != null && !mPager.hasPrevious()) {
+            return;
+        }
+        if (mPager == null && mPreviousListener == null) {
+            return;
+        }
+        mLoadPreviousToken = new IOSRequestToken(mGeneration);
+        if (mPager != null) {
+            if (!mPager.loadPrevious(mLoadPreviousToken)
+                    && !mPager.isLoadingPrevious()) {
+                mLoadPreviousToken = null;
+            }
+        } else {
+            mPreviousListener.onLoadPrevious(mLoadPreviousToken);
+        }
+    }
+
+    /**
+     * IOSListPager加载更早数据完成后调用
+     */
+    void onPrependResult(int count) {
+        stopLoadPrevious(count, mPager == null || mPager.hasPrevious());
+    }
+
+    /**
+     * 被取消的加载更早数据请求结束后调用，此时正在等待的请求可以重新发起
+     */
+    void onPrependCancelled() {
+        if (mLoadPreviousToken != null && mPager != null
+                && !mPager.isLoadingPrevious()) {
+            mLoadPreviousToken = null;
+            startLoadPrevious();
+        }
+    }
+
+    /**
+     * 取消正在进行的加载更多，结果返回时会被丢弃
+     */
+    private void cancelLoadMore() {
+        if (mLoadMoreToken != null) {
+            mLoadMoreToken.cancel();
+            mLoadMoreToken = null;
+        }
         if (mPullLoading) {
             mPullLoading = false;
+            mPrefetchWindow.onLoadCancelled();
             mFooterView.setState(IOSListViewFooter.STATE_NORMAL);
-            mFooterView.setVisibility(View.GONE);
+            mFooterView.setLoadingVisible(false);
+        }
+    }
+
+    /**
+     * 取消所有正在进行的刷新及加载更多请求，并复位header/footer
+     */
+    public void cancelRequests() {
+        cancelLoadMore();
+        cancelLoadPrevious();
+        if (mRefreshToken != null) {
+            mRefreshToken.cancel();
+        }
+        if (mPager != null) {
+            mPager.cancelAll();
+        }
+        stopRefresh();
+    }
+
+    /**
+     * 请求结果是否仍然有效，使用IOSListViewRequestListener时，数据返回后先调用该方法判断是否丢弃
+     * 
+     * @param token
+     */
+    public boolean isCurrentRequest(IOSRequestToken token) {
+        return token != null && !token.isCancelled()
+                && token.getGeneration() == mGeneration;
+    }
+
+    /**
+     * 设置分页加载引擎，设置后刷新及加载更多由引擎完成，不再回调
+     * IOSListViewListener的onRefresh()及onLoadMore()
+     * 
+     * @param pager
+     */
+    public void setPager(IOSListPager<?, ?> pager) {
+        if (mPager != null) {
+            mPager.attach(null);
+        }
+        mPager = pager;
+        if (mPager != null) {
+            mPager.attach(this);
+        }
+    }
+
+    public IOSListPager<?, ?> getPager() {
+        return mPager;
+    }
+
+    /**
+     * 分页引擎加载完成后回调，复位header/footer
+     * 
+     * @param refresh 是否为刷新请求
+     * @param success 是否加载成功
+     * @param hasMore 是否还有更多数据
+     */
+    void onPagerResult(boolean refresh, boolean success, boolean hasMore) {
+        if (!refresh && mUpdateFramePosted) {
+            // 数据在下一帧才通知，加载更多的状态在同一帧复位，只触发一次布局
+            mPendingStopLoadMore = true;
+            mPendingNoMoreData |= success && !hasMore;
+            return;
+        }
+        if (refresh) {
+            stopRefresh();
+            if (success && mPager != null && mPager.getPageCache() != null) {
+                setRefreshTime(System.currentTimeMillis());
+            }
+            if (success && hasMore && !mEnablePullLoad) {
+                setPullLoadEnable(true);
+            }
+        } else {
+            stopLoadMore();
+        }
+        if (success && !hasMore) {
+            setNoMoreData();
+        }
+    }
+
+    /**
+     * 刷新结果只替换了头部数据时调用，保持第一个可见行在屏幕上的位置不变，
+     * 顶部header可见时不做处理，直接显示新数据
+     * 
+     * @param diff
+     */
+    void keepAnchor(IOSListDiff.Result<?> diff) {
+        applyPendingUpdates();
+        int headers = getHeaderViewsCount();
+        int first = getFirstVisiblePosition();
+        if (first < headers || getChildCount() == 0) {
+            return;
+        }
+        int top = getChildAt(0).getTop();
+        setSelectionFromTop(diff.mapPosition(first - headers) + headers, top);
+    }
+
+    /**
+     * 在下一帧通知Adapter数据变化，同一帧内多次调用只通知一次。
+     * 只能用于数据增加或内容变化，数据减少时需立即调用notifyDataSetChanged，
+     * 否则在通知之前的滑动中可能访问到已不存在的位置。
+     * 通知之前Adapter的getCount需保持上次通知时的值，否则ListView在此期间布局时
+     * 会抛出IllegalStateException，IOSPagedAdapter已按此处理
+     * 
+     * @param adapter
+     */
+    public void postDataSetChanged(BaseAdapter adapter) {
+        if (!mPendingNotify.contains(adapter)) {
+            mPendingNotify.add(adapter);
+        }
+        if (!mUpdateFramePosted) {
+            mUpdateFramePosted = true;
+            ViewCompat.postOnAnimation(this, mUpdateFrameRunnable);
+        }
+    }
+
+    /**
+     * 加载更多的数据已追加到Adapter后调用，代替notifyDataSetChanged及stopLoadMore，
+     * 同一帧内返回的多页数据只触发一次布局，
+     * Adapter的行数要求与{@link #postDataSetChanged(BaseAdapter)}相同
+     * 
+     * @param adapter
+     */
+    public void notifyPageAppended(BaseAdapter adapter) {
+        postDataSetChanged(adapter);
+        mPendingStopLoadMore = true;
+    }
+
+    /**
+     * 立即执行等待中的数据变化通知
+     */
+    private void applyPendingUpdates() {
+        if (!mUpdateFramePosted) {
+            return;
+        }
+        mUpdateFramePosted = false;
+        removeCallbacks(mUpdateFrameRunnable);
+
+        for (int i = 0; i < mPendingNotify.size(); i++) {
+            mPendingNotify.get(i).notifyDataSetChanged();
+        }
+        mPendingNotify.clear();
+        if (mPendingStopLoadMore) {
+            mPendingStopLoadMore = false;
+            stopLoadMore();
+        }
+        if (mPendingNoMoreData) {
+            mPendingNoMoreData = false;
+            setNoMoreData();
         }
     }
 
@@ -229,9 +891,35 @@ public class IOSListView extends ListView implements OnScrollListener {
      * @param time
      */
     public void setRefreshTime(String time) {
-        mHeaderTimeView.setText(time);
-        findViewById(R.id.ios_listview_header_timeview).setVisibility(
-                View.VISIBLE);
+        mHeaderView.setRefreshTime(time);
+    }
+
+    /**
+     * 设置最后一次更新时间，按“月-日 时:分”显示
+     * 
+     * @param millis System.currentTimeMillis()
+     */
+    public void setRefreshTime(long millis) {
+        setRefreshTime(new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault())
+                .format(new Date(millis)));
+    }
+
+    /**
+     * 启动时调用，立即显示IOSListPager本地缓存的第一页及其保存时间，然后自动刷新，
+     * 刷新成功后更新缓存及更新时间
+     * 
+     * @return 是否读取到缓存
+     */
+    public boolean loadCachedPage() {
+        if (mPager == null) {
+            return false;
+        }
+        long savedTime = mPager.loadCachedFirstPage();
+        if (savedTime >= 0) {
+            setRefreshTime(savedTime);
+        }
+        startRefresh();
+        return savedTime >= 0;
     }
 
     /**
@@ -246,25 +934,97 @@ public class IOSListView extends ListView implements OnScrollListener {
      * 
      * @param delta
      */
-    private void updateHeaderHeight(float delta) {
+    private void updateHeaderHeight(int height) {
 
-        mHeaderView.setVisiableHeight((int) delta
-                + mHeaderView.getVisiableHeight());
+        setHeaderPullHeight(height);
 
         // 未处于刷新状态，更新箭头
         if (mEnablePullRefresh && !mPullRefreshing) {
-            if (mHeaderView.getVisiableHeight() > mHeaderViewHeight) {
+            if (isHeaderPulledPast()) {
                 mHeaderView.setState(IOSListViewHeader.STATE_READY);
             } else {
                 mHeaderView.setState(IOSListViewHeader.STATE_NORMAL);
             }
         }
 
-        /**
-         * 用户下拉回推时，不断修改header的高度，但这时候滚动条指示器的位置还是按老的高度计算的，
-         * 需要强制调用一下setSelection(0)将ListView滚动到顶部。
-         */
-        setSelection(0);
+        /**
+         * 用户下拉回推时，不断修改header的高度，但这时候滚动条指示器的位置还是按老的高度计算的，
+         * 需要强制调用一下setSelection(0)将ListView滚动到顶部。
+         */
+        if (mPullRenderMode == PULL_RENDER_LAYOUT) {
+            setSelection(0);
+        }
+    }
+
+    /**
+     * 下拉高度是否已超过header内容的高度，可以松开刷新。
+     * header内容延迟加载，第一次布局之前高度未知，此时不允许刷新
+     */
+    private boolean isHeaderPulledPast() {
+        return mHeaderViewHeight > 0
+                && getHeaderPullHeight() > mHeaderViewHeight;
+    }
+
+    /**
+     * header当前的下拉高度
+     */
+    private int getHeaderPullHeight() {
+        if (mPullRenderMode == PULL_RENDER_TRANSLATE) {
+            return mHeaderOffset;
+        }
+        return mHeaderView.getVisiableHeight();
+    }
+
+    private void setHeaderPullHeight(int height) {
+        if (mPullRenderMode == PULL_RENDER_TRANSLATE) {
+            height = Math.max(0, height);
+            if (height > 0) {
+                mHeaderView.ensureContent();
+            }
+            if (height != mHeaderOffset) {
+                mHeaderOffset = height;
+                invalidate();
+            }
+        } else {
+            mHeaderView.setVisiableHeight(height);
+        }
+    }
+
+    /**
+     * footer当前的上拉高度
+     */
+    private int getFooterPullHeight() {
+        if (mPullRenderMode == PULL_RENDER_TRANSLATE) {
+            return mFooterOffset;
+        }
+        return mFooterView.getBottomMargin();
+    }
+
+    private void setFooterPullHeight(int height) {
+        if (height < 0) {
+            return;
+        }
+        if (mPullRenderMode == PULL_RENDER_TRANSLATE) {
+            if (height != mFooterOffset) {
+                mFooterOffset = height;
+                invalidate();
+            }
+        } else {
+            mFooterView.setBottomMargin(height);
+        }
+    }
+
+    /**
+     * 是否可以下拉刷新：第一行完全可见
+     */
+    private boolean isHeaderPullable() {
+        if (getFirstVisiblePosition() != 0) {
+            return false;
+        }
+        if (mPullRenderMode == PULL_RENDER_LAYOUT || getChildCount() == 0) {
+            return true;
+        }
+        return getChildAt(0).getTop() >= getListPaddingTop();
     }
 
     /**
@@ -272,7 +1032,7 @@ public class IOSListView extends ListView implements OnScrollListener {
      */
     private void resetHeaderHeight() {
 
-        int height = mHeaderView.getVisiableHeight();
+        int height = getHeaderPullHeight();
         if (height == 0) {
             return;
         }
@@ -288,11 +1048,7 @@ public class IOSListView extends ListView implements OnScrollListener {
             finalHeight = mHeaderViewHeight;
         }
 
-        mScrollBack = SCROLLBACK_HEADER;
-        mScroller.startScroll(0, height, 0, finalHeight - height,
-                SCROLL_DURATION);
-
-        invalidate();
+        mHeaderSettle.start(height, finalHeight);
     }
 
     /**
@@ -300,8 +1056,7 @@ public class IOSListView extends ListView implements OnScrollListener {
      * 
      * @param delta
      */
-    private void updateFooterHeight(float delta) {
-        int height = mFooterView.getBottomMargin() + (int) delta;
+    private void updateFooterHeight(int height) {
         if (mEnablePullLoad && !mPullLoading) {
             if (height > PULL_LOAD_MORE_DELTA) {
                 mFooterView.setState(IOSListViewFooter.STATE_READY);
@@ -309,48 +1064,122 @@ public class IOSListView extends ListView implements OnScrollListener {
                 mFooterView.setState(IOSListViewFooter.STATE_NORMAL);
             }
         }
-        mFooterView.setBottomMargin(height);
+        setFooterPullHeight(height);
     }
 
     /**
      * 复位footer view高度
      */
     private void resetFooterHeight() {
-        int bottomMargin = mFooterView.getBottomMargin();
+        int bottomMargin = getFooterPullHeight();
         if (bottomMargin > 0) {
-            mScrollBack = SCROLLBACK_FOOTER;
-            mScroller.startScroll(0, bottomMargin, 0, -bottomMargin,
-                    SCROLL_DURATION);
-            invalidate();
+            mFooterSettle.start(bottomMargin, 0);
+        }
+    }
+
+    /**
+     * 回调刷新接口
+     */
+    private void startRefresh() {
+        // 刷新后之前的加载更多结果已过期，直接取消
+        cancelLoadMore();
+        cancelLoadPrevious();
+        resetLoadPrevious();
+        if (mRefreshToken != null) {
+            mRefreshToken.cancel();
+        }
+        mRefreshToken = new IOSRequestToken(++mGeneration);
+
+        mPullRefreshing = true;
+        mHeaderView.setState(IOSListViewHeader.STATE_REFRESHING);
+        if (mPager != null) {
+            mPager.refresh(mRefreshToken);
+        } else if (mRequestListener != null) {
+            mRequestListener.onRefresh(mRefreshToken);
+        } else if (mListViewListener != null) {
+            mListViewListener.onRefresh();
         }
     }
 
     /**
-     * 回调加载更多接口
+     * 回调加载更多接口，正在加载时直接返回，避免重复请求
      */
     private void startLoadMore() {
+        if (mPullLoading || mPullRefreshing) {
+            return;
+        }
+        if (mPager != null && !mPager.hasMore()) {
+            setNoMoreData();
+            return;
+        }
         mPullLoading = true;
+        mLoadMoreToken = new IOSRequestToken(mGeneration);
+        mPrefetchWindow.onLoadStarted();
         mFooterView.setState(IOSListViewFooter.STATE_LOADING);
 
-        if (mFooterView.getVisibility() == View.VISIBLE) {
-
-        } else {
-            Animation animation = AnimationUtils.loadAnimation(getContext(),
-                    R.anim.rotate);
-            mFooterView.findViewById(R.id.ios_listview_footer_progressbar)
-                    .startAnimation(animation);
-            mFooterView.setVisibility(View.VISIBLE);
+        if (!mFooterView.isLoadingVisible()) {
+            mFooterView.startLoadingAnimation();
+            mFooterView.setLoadingVisible(true);
+        }
+        if (mPreInflate) {
+            preInflateRows();
         }
-        if (mListViewListener != null) {
+        if (mPager != null) {
+            if (!mPager.loadNext(mLoadMoreToken) && !mPager.isLoadingMore()) {
+                cancelLoadMore();
+            }
+        } else if (mRequestListener != null) {
+            mRequestListener.onLoadMore(mLoadMoreToken);
+        } else if (mListViewListener != null) {
             mListViewListener.onLoadMore();
         }
     }
 
     /**
-     * 用于解决广告的水平滚动与ListView竖直滚动的冲突问题
+     * 用于解决广告的水平滚动与ListView竖直滚动的冲突问题，会替换之前添加的所有InterceptView
      */
     public void setIntereptView(View interceptView) {
-        this.mInterceptView = interceptView;
+        mInterceptViews.clear();
+        addInterceptView(interceptView);
+    }
+
+    /**
+     * 添加一个水平滚动的view，可以是列表中某一行的子view，应在getView中每次绑定时调用。
+     * 只持有弱引用，触摸时已与窗口分离的view（如更换Adapter后被丢弃的行）会被移除
+     * 
+     * @param interceptView
+     */
+    public void addInterceptView(View interceptView) {
+        if (interceptView == null) {
+            return;
+        }
+        for (int i = mInterceptViews.size() - 1; i >= 0; i--) {
+            View view = mInterceptViews.get(i).get();
+            if (view == interceptView) {
+                return;
+            }
+            // 新绑定的行可能还未添加到窗口，这里只移除已被回收的引用
+            if (view == null) {
+                mInterceptViews.remove(i);
+            }
+        }
+        mInterceptViews.add(new WeakReference<View>(interceptView));
+    }
+
+    public void removeInterceptView(View interceptView) {
+        for (int i = mInterceptViews.size() - 1; i >= 0; i--) {
+            View view = mInterceptViews.get(i).get();
+            if (view == interceptView || view == null) {
+                mInterceptViews.remove(i);
+            }
+        }
+    }
+
+    /**
+     * 已被回收或已与窗口分离的view，在触摸时判断，列表缓存中暂时移出的行仍与窗口关联，不会被移除
+     */
+    private static boolean isStaleInterceptView(View view) {
+        return view == null || view.getWindowToken() == null;
     }
 
     /**
@@ -358,17 +1187,73 @@ public class IOSListView extends ListView implements OnScrollListener {
      */
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
+        // 只在手势开始时判断一次，整个手势沿用该结果
+        if (ev.getAction() == MotionEvent.ACTION_DOWN) {
+            mInInterceptView = hitInterceptView((int) ev.getX(),
+                    (int) ev.getY());
+        }
+        if (mInInterceptView) {
+            return false;
+        }
 
-        if (mInterceptView != null) {
-            Rect rect = new Rect();
-            mInterceptView.getHitRect(rect);
+        return super.onInterceptTouchEvent(ev);
+    }
+
+    /**
+     * 判断坐标是否落在某个InterceptView上，坐标按各级父view的位置及滚动偏移换算到ListView中
+     */
+    private boolean hitInterceptView(int x, int y) {
+        boolean hit = false;
+        for (int i = mInterceptViews.size() - 1; i >= 0; i--) {
+            View view = mInterceptViews.get(i).get();
+            if (isStaleInterceptView(view)) {
+                mInterceptViews.remove(i);
+                continue;
+            }
+            if (!hit && view.getVisibility() == View.VISIBLE
+                    && getInterceptRect(view, mInterceptRect)
+                    && mInterceptRect.contains(x, y)) {
+                hit = true;
+            }
+        }
+        return hit;
+    }
 
-            if ((rect.contains((int) ev.getX(), (int) ev.getY()))) {
+    /**
+     * 计算view在ListView中的区域，view不在当前ListView中（如所在行已被回收）时返回false
+     */
+    private boolean getInterceptRect(View view, Rect rect) {
+        int left = view.getLeft();
+        int top = view.getTop();
+        ViewParent parent = view.getParent();
+        while (parent != this) {
+            if (!(parent instanceof View)) {
                 return false;
             }
+            View p = (View) parent;
+            left += p.getLeft() - p.getScrollX();
+            top += p.getTop() - p.getScrollY();
+            parent = p.getParent();
         }
+        left -= getScrollX();
+        top -= getScrollY();
+        rect.set(left, top, left + view.getWidth(), top + view.getHeight());
+        return true;
+    }
 
-        return super.onInterceptTouchEvent(ev);
+    /**
+     * PULL_RENDER_TRANSLATE模式下内容在绘制时被平移，触摸事件同样需要平移回布局坐标
+     */
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        int offset = mHeaderOffset - mFooterOffset;
+        if (mPullRenderMode != PULL_RENDER_TRANSLATE || offset == 0) {
+            return super.dispatchTouchEvent(ev);
+        }
+        ev.offsetLocation(0, -offset);
+        boolean handled = super.dispatchTouchEvent(ev);
+        ev.offsetLocation(0, offset);
+        return handled;
     }
 
     @Override
@@ -381,21 +1266,38 @@ public class IOSListView extends ListView implements OnScrollListener {
         switch (ev.getAction()) {
         case MotionEvent.ACTION_DOWN:
             mLastY = ev.getRawY();
+            // 回弹过程中重新按下，从当前高度继续拖动
+            mHeaderSettle.cancel();
+            mFooterSettle.cancel();
+            mPullConsumed = false;
             break;
         case MotionEvent.ACTION_MOVE:
-            final float deltaY = ev.getRawY() - mLastY;
-            mLastY = ev.getRawY();
+            if (!mPullFramePending) {
+                mPendingHeaderHeight = getHeaderPullHeight();
+                mPendingFooterHeight = getFooterPullHeight();
+            }
 
-            if (mEnablePullRefresh && getFirstVisiblePosition() == 0
-                    && (mHeaderView.getVisiableHeight() > 0 || deltaY > 0)) {
-                updateHeaderHeight(deltaY / OFFSET_RADIO);
+            // 逐个处理批量的历史采样，只累计高度，下一帧再统一更新header/footer
+            final float rawOffset = ev.getRawY() - ev.getY();
+            final int historySize = ev.getHistorySize();
+            boolean pulling = false;
+            for (int i = 0; i <= historySize; i++) {
+                float rawY = (i < historySize ? ev.getHistoricalY(i) : ev
+                        .getY()) + rawOffset;
+                // 任何一个采样处于下拉/上拉中都需要处理，例如先推回0之后的采样不再满足条件
+                pulling |= accumulatePull(rawY - mLastY);
+                mLastY = rawY;
             }
 
-            else if (mEnablePullLoad
-                    && getLastVisiblePosition() == mTotalItemCount - 1
-                    && (mFooterView.getBottomMargin() > 0 || deltaY < 0)
-                    && getFirstVisiblePosition() > 0) {
-                updateFooterHeight(-deltaY / OFFSET_RADIO);
+            // 累计的高度与当前高度不同时都需要更新，否则推回0的结果会丢失
+            boolean changed = (int) mPendingHeaderHeight != getHeaderPullHeight()
+                    || (int) mPendingFooterHeight != getFooterPullHeight();
+            if ((pulling || changed) && !mPullFramePending) {
+                mPullFramePending = true;
+                ViewCompat.postOnAnimation(this, mPullFrameRunnable);
+            }
+            if ((pulling || mPullConsumed) && consumePull(ev)) {
+                return true;
             }
             break;
         case MotionEvent.ACTION_CANCEL:
@@ -403,16 +1305,13 @@ public class IOSListView extends ListView implements OnScrollListener {
 
             // reset
             mLastY = -1;
+            applyPendingPull();
 
             // 下拉刷新
-            if (getFirstVisiblePosition() == 0) {
-                if (mEnablePullRefresh
-                        && mHeaderView.getVisiableHeight() > mHeaderViewHeight) {
-                    mPullRefreshing = true;
-                    mHeaderView.setState(IOSListViewHeader.STATE_REFRESHING);
-                    if (mListViewListener != null) {
-                        mListViewListener.onRefresh();
-                    }
+            if (isHeaderPullable() || mHeaderOffset > 0) {
+                if (mEnablePullRefresh && !mPullRefreshing
+                        && isHeaderPulledPast()) {
+                    startRefresh();
                 }
                 resetHeaderHeight();
             }
@@ -421,31 +1320,114 @@ public class IOSListView extends ListView implements OnScrollListener {
             else if (getLastVisiblePosition() == mTotalItemCount - 1
                     && getFirstVisiblePosition() > 0) {
                 if (mEnablePullLoad
-                        && mFooterView.getBottomMargin() > PULL_LOAD_MORE_DELTA) {
+                        && getFooterPullHeight() > PULL_LOAD_MORE_DELTA) {
                     startLoadMore();
                 }
                 resetFooterHeight();
             }
 
+            if (mPullConsumed) {
+                mPullConsumed = false;
+                return true;
+            }
             break;
         }
 
         return super.onTouchEvent(ev);
     }
 
-    @Override
-    public void computeScroll() {
+    /**
+     * 按阻力系数累计一次移动
+     * 
+     * @return 是否处于下拉/上拉中
+     */
+    private boolean accumulatePull(float deltaY) {
+        if (mEnablePullRefresh && isHeaderPullable()
+                && (mPendingHeaderHeight > 0 || deltaY > 0)) {
+            mPendingHeaderHeight = Math.max(0, mPendingHeaderHeight + deltaY
+                    / OFFSET_RADIO);
+            return true;
+        }
 
-        if (mScroller.computeScrollOffset()) {
-            if (mScrollBack == SCROLLBACK_HEADER) {
-                mHeaderView.setVisiableHeight(mScroller.getCurrY());
-            } else {
-                mFooterView.setBottomMargin(mScroller.getCurrY());
+        else if (mEnablePullLoad
+                && getLastVisiblePosition() == mTotalItemCount - 1
+                && (mPendingFooterHeight > 0 || deltaY < 0)
+                && getFirstVisiblePosition() > 0) {
+            mPendingFooterHeight = Math.max(0, mPendingFooterHeight - deltaY
+                    / OFFSET_RADIO);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把累计的高度应用到header/footer，每帧调用一次，松手时也会立即调用
+     */
+    private void applyPendingPull() {
+        if (!mPullFramePending) {
+            return;
+        }
+        mPullFramePending = false;
+        removeCallbacks(mPullFrameRunnable);
+
+        int headerHeight = (int) mPendingHeaderHeight;
+        if (headerHeight != getHeaderPullHeight()) {
+            updateHeaderHeight(headerHeight);
+        }
+        int footerHeight = (int) mPendingFooterHeight;
+        if (footerHeight != getFooterPullHeight()) {
+            updateFooterHeight(footerHeight);
+        }
+    }
+
+    /**
+     * PULL_RENDER_TRANSLATE模式下，下拉/上拉的移动事件不再传给ListView，
+     * 第一次时发送ACTION_CANCEL，避免松手后触发点击或长按
+     * 
+     * @return 是否已消费该事件
+     */
+    private boolean consumePull(MotionEvent ev) {
+        if (mPullRenderMode != PULL_RENDER_TRANSLATE) {
+            return false;
+        }
+        if ((int) mPendingHeaderHeight == 0 && (int) mPendingFooterHeight == 0) {
+            // 推回原位后，把剩余的手势交还给ListView继续滚动
+            if (mPullConsumed) {
+                mPullConsumed = false;
+                // 先把平移复位，ListView从没有偏移的位置继续滚动
+                applyPendingPull();
+                MotionEvent down = MotionEvent.obtain(ev);
+                down.setAction(MotionEvent.ACTION_DOWN);
+                super.onTouchEvent(down);
+                down.recycle();
             }
-            postInvalidate();
+            return false;
+        }
+        if (!mPullConsumed) {
+            mPullConsumed = true;
+            MotionEvent cancel = MotionEvent.obtain(ev);
+            cancel.setAction(MotionEvent.ACTION_CANCEL);
+            super.onTouchEvent(cancel);
+            cancel.recycle();
         }
+        return true;
+    }
 
-        super.computeScroll();
+    /**
+     * PULL_RENDER_TRANSLATE模式下按下拉/上拉距离平移绘制内容
+     */
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        int offset = mHeaderOffset - mFooterOffset;
+        if (mPullRenderMode != PULL_RENDER_TRANSLATE || offset == 0) {
+            super.dispatchDraw(canvas);
+            return;
+        }
+        int saveCount = canvas.save();
+        canvas.clipRect(0, 0, getWidth(), getHeight());
+        canvas.translate(0, offset);
+        super.dispatchDraw(canvas);
+        canvas.restoreToCount(saveCount);
     }
 
     @Override
@@ -459,6 +1441,10 @@ public class IOSListView extends ListView implements OnScrollListener {
             mScrollListener.onScrollStateChanged(view, scrollState);
         }
 
+        if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+            mPrefetchWindow.onScrollIdle();
+        }
+
         // 滑动时预加载下一屏
         int lastIndex = getLastVisiblePosition();
         if (lastIndex > mTotalItemCount - 2 && getFirstVisiblePosition() > 0
@@ -477,12 +1463,41 @@ public class IOSListView extends ListView implements OnScrollListener {
                     totalItemCount);
         }
 
-        // 如果当前少于一屏展示的话，则不显示加载更多
+        // 如果当前少于一屏展示的话，则不显示加载更多，只在状态变化时才修改footer
         if (mFooterView != null && mEnablePullLoad) {
-            if (firstVisibleItem == 0) {
-                mFooterView.hide();
-            } else {
-                mFooterView.show();
+            mFooterView.setContentShown(firstVisibleItem != 0);
+        }
+
+        // 释放远离可见区域的页
+        if (mPager != null && visibleItemCount > 0) {
+            int headers = getHeaderViewsCount();
+            mPager.onVisibleRangeChanged(firstVisibleItem - headers,
+                    firstVisibleItem + visibleItemCount - 1 - headers);
+        }
+
+        // 第一个数据行可见时加载更早的数据，与底部的预加载对应
+        if (mEnableLoadPrevious && visibleItemCount > 0
+                && firstVisibleItem <= getHeaderViewsCount()
+                && totalItemCount > getHeaderViewsCount() + getFooterViewsCount()) {
+            startLoadPrevious();
+        }
+
+        // 利用空闲时间为下一屏创建行
+        if (mIdlePrefetch && visibleItemCount > 0) {
+            idlePrefetch(firstVisibleItem, visibleItemCount);
+        }
+
+        // 根据滑动速度提前加载下一页
+        if (mIsPrefetch && mIsPreLoad && mEnablePullLoad && visibleItemCount > 0) {
+            View first = getChildAt(0);
+            float offset = first != null && first.getHeight() > 0 ? -first
+                    .getTop() / (float) first.getHeight() : 0;
+            mPrefetchWindow.onScroll(firstVisibleItem + offset);
+
+            int lastIndex = firstVisibleItem + visibleItemCount - 1;
+            if (!mPullLoading && firstVisibleItem > 0
+                    && lastIndex + mPrefetchWindow.getLookAheadRows() >= totalItemCount - 1) {
+                startLoadMore();
             }
         }
     }
@@ -491,6 +1506,15 @@ public class IOSListView extends ListView implements OnScrollListener {
         mListViewListener = l;
     }
 
+    /**
+     * 设置带请求标识的回调，设置后不再回调IOSListViewListener的onRefresh()及onLoadMore()
+     * 
+     * @param l
+     */
+    public void setIOSListViewRequestListener(IOSListViewRequestListener l) {
+        mRequestListener = l;
+    }
+
     /**
      * 实现该接口完成下拉刷新及上拉加载更多
      */
@@ -507,13 +1531,97 @@ public class IOSListView extends ListView implements OnScrollListener {
         public void onLoadMore();
     }
 
+    /**
+     * 带请求标识的下拉刷新及上拉加载更多回调，下拉刷新开始时之前的请求会被取消，
+     * 网络层可以通过token中止请求，数据返回时通过isCurrentRequest判断是否丢弃
+     */
+    public interface IOSListViewRequestListener {
+
+        /**
+         * 刷新
+         */
+        public void onRefresh(IOSRequestToken token);
+
+        /**
+         * 加载更多
+         */
+        public void onLoadMore(IOSRequestToken token);
+    }
+
+    /**
+     * IOSListView保存的状态
+     */
+    static class SavedState extends BaseSavedState {
+
+        boolean enablePullLoad;
+
+        /** IOSListPager.saveState的结果. */
+        byte[] pagerState;
+
+        /** 第一个可见数据行的位置，不包括header. */
+        int anchorPosition;
+
+        int anchorTop;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            enablePullLoad = in.readInt() != 0;
+            pagerState = in.createByteArray();
+            anchorPosition = in.readInt();
+            anchorTop = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(enablePullLoad ? 1 : 0);
+            out.writeByteArray(pagerState);
+            out.writeInt(anchorPosition);
+            out.writeInt(anchorTop);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * 加载更早数据的回调，数据插入Adapter并刷新后调用stopLoadPrevious，
+     * 已到达最早的数据时hasMore传false
+     */
+    public interface IOSListViewPreviousListener {
+
+        /**
+         * 加载更早的数据
+         */
+        public void onLoadPrevious(IOSRequestToken token);
+    }
+
     /**
      * 头部显示下拉刷新
      */
     public class IOSListViewHeader extends LinearLayout {
 
+        /** 以下view在第一次需要显示时才加载，之前均为null. */
         private LinearLayout mContainer;
 
+        private RelativeLayout mContent;
+
+        private TextView mTimeView;
+
         private ImageView mArrowImageView;
 
         private ProgressBar mProgressBar;
@@ -522,6 +1630,13 @@ public class IOSListView extends ListView implements OnScrollListener {
 
         private int mState = STATE_NORMAL;
 
+        /** 内容加载前设置的状态，加载时再应用. */
+        private boolean mContentEnabled = true;
+
+        private boolean mContentFullHeight = false;
+
+        private String mRefreshTime;
+
         private Animation mRotateUpAnim;
 
         private Animation mRotateDownAnim;
@@ -549,23 +1664,53 @@ public class IOSListView extends ListView implements OnScrollListener {
         }
 
         /**
-         * 初始情况，设置下拉刷新view高度为0
+         * 初始情况只创建空的header，内容在第一次下拉时加载
          * 
          * @param context
          */
         private void initView(Context context) {
+            setGravity(Gravity.BOTTOM);
+        }
+
+        /**
+         * 加载header内容，已加载时直接返回
+         */
+        void ensureContent() {
+            if (mContainer != null) {
+                return;
+            }
 
             LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
-                    LayoutParams.FILL_PARENT, 0);
-            mContainer = (LinearLayout) LayoutInflater.from(context).inflate(
-                    R.layout.ios_listview_header, null);
+                    LayoutParams.FILL_PARENT, mContentFullHeight
+                            ? LayoutParams.WRAP_CONTENT : 0);
+            mContainer = (LinearLayout) LayoutInflater.from(getContext())
+                    .inflate(R.layout.ios_listview_header, null);
             addView(mContainer, lp);
-            setGravity(Gravity.BOTTOM);
 
+            mContent = (RelativeLayout) findViewById(R.id.ios_listview_header_content);
+            mTimeView = (TextView) findViewById(R.id.ios_listview_header_time);
             mArrowImageView = (ImageView) findViewById(R.id.ios_listview_header_arrow);
             mHintTextView = (TextView) findViewById(R.id.ios_listview_header_hint_textview);
             mProgressBar = (ProgressBar) findViewById(R.id.ios_listview_header_progressbar);
 
+            mContent.setVisibility(mContentEnabled ? View.VISIBLE
+                    : View.INVISIBLE);
+            if (mRefreshTime != null) {
+                applyRefreshTime();
+            }
+
+            // 计算header view的高度
+            getViewTreeObserver().addOnGlobalLayoutListener(
+                    new OnGlobalLayoutListener() {
+                        @Override
+                        public void onGlobalLayout() {
+                            mHeaderViewHeight = mContent.getHeight();
+                            getViewTreeObserver().removeGlobalOnLayoutListener(
+                                    this);
+                        }
+                    });
+
+            // 动画对象带有运行状态，不能在多个view间共享，每个header各自创建
             mRotateUpAnim = new RotateAnimation(0.0f, -180.0f,
                     Animation.RELATIVE_TO_SELF, 0.5f,
                     Animation.RELATIVE_TO_SELF, 0.5f);
@@ -578,6 +1723,31 @@ public class IOSListView extends ListView implements OnScrollListener {
             mRotateDownAnim.setFillAfter(true);
         }
 
+        /**
+         * 是否显示下拉刷新内容
+         * 
+         * @param enabled
+         */
+        void setContentEnabled(boolean enabled) {
+            mContentEnabled = enabled;
+            if (mContent != null) {
+                mContent.setVisibility(enabled ? View.VISIBLE : View.INVISIBLE);
+            }
+        }
+
+        void setRefreshTime(String time) {
+            mRefreshTime = time;
+            if (mContainer != null) {
+                applyRefreshTime();
+            }
+        }
+
+        private void applyRefreshTime() {
+            mTimeView.setText(mRefreshTime);
+            findViewById(R.id.ios_listview_header_timeview).setVisibility(
+                    View.VISIBLE);
+        }
+
         /**
          * 更新状态显示
          * 
@@ -586,6 +1756,7 @@ public class IOSListView extends ListView implements OnScrollListener {
         public void setState(int state) {
             if (state == mState)
                 return;
+            ensureContent();
 
             // 显示进度
             if (state == STATE_REFRESHING) {
@@ -626,9 +1797,39 @@ public class IOSListView extends ListView implements OnScrollListener {
             mState = state;
         }
 
+        /**
+         * PULL_RENDER_TRANSLATE模式下内容保持完整高度，header自身测量高度为0，
+         * 内容位于header上方，通过平移绘制显示
+         * 
+         * @param full
+         */
+        void setContentFullHeight(boolean full) {
+            mContentFullHeight = full;
+            if (mContainer == null) {
+                return;
+            }
+            LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContainer
+                    .getLayoutParams();
+            lp.height = full ? LayoutParams.WRAP_CONTENT : 0;
+            mContainer.setLayoutParams(lp);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            if (mPullRenderMode == PULL_RENDER_TRANSLATE) {
+                setMeasuredDimension(getMeasuredWidth(), 0);
+            }
+        }
+
         public void setVisiableHeight(int height) {
             if (height < 0)
                 height = 0;
+            if (mContainer == null) {
+                if (height == 0)
+                    return;
+                ensureContent();
+            }
             LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContainer
                     .getLayoutParams();
             lp.height = height;
@@ -636,7 +1837,7 @@ public class IOSListView extends ListView implements OnScrollListener {
         }
 
         public int getVisiableHeight() {
-            return mContainer.getHeight();
+            return mContainer == null ? 0 : mContainer.getHeight();
         }
     }
 
@@ -653,12 +1854,24 @@ public class IOSListView extends ListView implements OnScrollListener {
 
         private Context mContext;
 
+        /** 以下view在第一次需要显示时才加载，之前均为null. */
         private View mContentView;
 
         private View mProgressBar;
 
         private TextView mHintView;
 
+        /** 加载中的旋转动画，第一次加载更多时创建，之后重复使用. */
+        private Animation mLoadingAnim;
+
+        private int mState = STATE_NORMAL;
+
+        /** 加载更多内容是否显示，只在变化时才修改布局. */
+        private boolean mContentShown = true;
+
+        /** 始终占据空间，隐藏时只设置为INVISIBLE. */
+        private boolean mReserveSpace = false;
+
         public IOSListViewFooter(Context context) {
             super(context);
             initView(context);
@@ -671,6 +1884,15 @@ public class IOSListView extends ListView implements OnScrollListener {
 
         private void initView(Context context) {
             mContext = context;
+        }
+
+        /**
+         * 加载footer内容，已加载时直接返回
+         */
+        void ensureContent() {
+            if (mContentView != null) {
+                return;
+            }
             LinearLayout moreView = (LinearLayout) LayoutInflater
                     .from(mContext).inflate(R.layout.ios_listview_footer, null);
             addView(moreView);
@@ -683,6 +1905,12 @@ public class IOSListView extends ListView implements OnScrollListener {
                     .findViewById(R.id.ios_listview_footer_progressbar);
             mHintView = (TextView) moreView
                     .findViewById(R.id.ios_listview_footer_hint_textview);
+
+            // 应用加载之前设置的状态
+            applyState();
+            if (mReserveSpace || !mContentShown) {
+                applyContentShown();
+            }
         }
 
         /**
@@ -691,13 +1919,27 @@ public class IOSListView extends ListView implements OnScrollListener {
          * @param state
          */
         public void setState(int state) {
+            if (state == mState)
+                return;
+            mState = state;
+
+            if (mContentView == null) {
+                if (state == STATE_NORMAL)
+                    return;
+                ensureContent();
+                return;
+            }
+            applyState();
+        }
+
+        private void applyState() {
             mHintView.setVisibility(View.INVISIBLE);
             mProgressBar.setVisibility(View.INVISIBLE);
             mHintView.setVisibility(View.INVISIBLE);
-            if (state == STATE_READY) {
+            if (mState == STATE_READY) {
                 mHintView.setVisibility(View.VISIBLE);
                 // mHintView.setText("松开载入更多");
-            } else if (state == STATE_LOADING) {
+            } else if (mState == STATE_LOADING) {
                 mProgressBar.setVisibility(View.VISIBLE);
             } else {
                 mHintView.setVisibility(View.VISIBLE);
@@ -705,16 +1947,38 @@ public class IOSListView extends ListView implements OnScrollListener {
             }
         }
 
+        /**
+         * 开始加载中的旋转动画
+         */
+        void startLoadingAnimation() {
+            ensureContent();
+            if (mLoadingAnim == null) {
+                mLoadingAnim = AnimationUtils.loadAnimation(mContext,
+                        R.anim.rotate);
+            }
+            mProgressBar.startAnimation(mLoadingAnim);
+        }
+
         public void setBottomMargin(int height) {
             if (height < 0)
                 return;
+            if (mContentView == null) {
+                if (height == 0)
+                    return;
+                ensureContent();
+            }
             LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContentView
                     .getLayoutParams();
+            if (lp.bottomMargin == height)
+                return;
             lp.bottomMargin = height;
             mContentView.setLayoutParams(lp);
         }
 
         public int getBottomMargin() {
+            if (mContentView == null) {
+                return 0;
+            }
             LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContentView
                     .getLayoutParams();
             return lp.bottomMargin;
@@ -724,6 +1988,7 @@ public class IOSListView extends ListView implements OnScrollListener {
          * normal status
          */
         public void normal() {
+            ensureContent();
             mHintView.setVisibility(View.VISIBLE);
             mProgressBar.setVisibility(View.GONE);
         }
@@ -732,6 +1997,7 @@ public class IOSListView extends ListView implements OnScrollListener {
          * loading status
          */
         public void loading() {
+            ensureContent();
             mHintView.setVisibility(View.GONE);
             mProgressBar.setVisibility(View.VISIBLE);
         }
@@ -740,17 +2006,85 @@ public class IOSListView extends ListView implements OnScrollListener {
          * 当上拉加载更多不可用时，隐藏加载更多组件
          */
         public void hide() {
-            LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContentView
-                    .getLayoutParams();
-            lp.height = 0;
-            mContentView.setLayoutParams(lp);
+            setContentShown(false);
         }
 
+        /**
+         * 显示加载更多组件，内容未加载时先加载
+         */
         public void show() {
+            ensureContent();
+            setContentShown(true);
+        }
+
+        /**
+         * 显示或隐藏加载更多内容，状态没有变化时不做任何操作
+         * 
+         * @param shown
+         */
+        public void setContentShown(boolean shown) {
+            if (shown == mContentShown)
+                return;
+            mContentShown = shown;
+            if (mContentView != null) {
+                applyContentShown();
+            }
+        }
+
+        /**
+         * 始终占据空间，显示/隐藏只切换可见性，不触发布局
+         * 
+         * @param reserve
+         */
+        public void setReserveSpace(boolean reserve) {
+            if (reserve == mReserveSpace)
+                return;
+            mReserveSpace = reserve;
+
+            if (mContentView != null) {
+                // 切换方式前先恢复另一种方式隐藏的内容
+                LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContentView
+                        .getLayoutParams();
+                lp.height = LayoutParams.WRAP_CONTENT;
+                mContentView.setLayoutParams(lp);
+                mContentView.setVisibility(View.VISIBLE);
+                applyContentShown();
+            }
+            if (!isLoadingVisible()) {
+                setLoadingVisible(false);
+            }
+        }
+
+        private void applyContentShown() {
+            if (mReserveSpace) {
+                mContentView.setVisibility(mContentShown ? View.VISIBLE
+                        : View.INVISIBLE);
+                return;
+            }
             LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) mContentView
                     .getLayoutParams();
-            lp.height = LayoutParams.WRAP_CONTENT;
+            lp.height = mContentShown ? LayoutParams.WRAP_CONTENT : 0;
             mContentView.setLayoutParams(lp);
         }
+
+        /**
+         * 加载更多时显示footer，加载完成后隐藏
+         * 
+         * @param visible
+         */
+        public void setLoadingVisible(boolean visible) {
+            if (visible) {
+                ensureContent();
+            }
+            int visibility = visible ? View.VISIBLE
+                    : (mReserveSpace ? View.INVISIBLE : View.GONE);
+            if (getVisibility() != visibility) {
+                setVisibility(visibility);
+            }
+        }
+
+        public boolean isLoadingVisible() {
+            return getVisibility() == View.VISIBLE;
+        }
     }
 }
@@ -0,0 +1,149 @@
+package com.lightinthebox.android.view;
+
+import java.util.WeakHashMap;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import com.lightinthebox.android.view.IOSListPager.LoadParams;
+import com.lightinthebox.android.view.IOSListPager.Page;
+
+/**
+ * 以IOSPagedList为数据的Adapter，所在页已被释放的行显示占位view，
+ * 该页重新加载完成后自动刷新
+ *
+ * @param <K> 页码或游标类型
+ * @param <T> 数据项类型
+ */
+public abstract class IOSPagedAdapter<K, T> extends BaseAdapter implements
+        IOSListPager.PageCallback<K, T> {
+
+    /** 普通行. */
+    public final static int VIEW_TYPE_ITEM = 0;
+
+    /** 占位行. */
+    public final static int VIEW_TYPE_PLACEHOLDER = 1;
+
+    private final IOSListPager<K, T> mPager;
+
+    private final IOSPagedList<K, T> mPagedList;
+
+    /** 上次通知数据变化时的行数，用于判断能否推迟到下一帧通知. */
+    private int mNotifiedCount;
+
+    /** 是否有推迟到下一帧的通知，此时getCount保持上次通知时的行数. */
+    private boolean mNotifyPending;
+
+    /** 每个view当前绑定的数据，数据未变化时跳过重新绑定. */
+    private final WeakHashMap<View, Object> mBoundItems = new WeakHashMap<View, Object>();
+
+    /**
+     * 创建Adapter并设置为pager的数据及回调
+     *
+     * @param pager
+     */
+    public IOSPagedAdapter(IOSListPager<K, T> pager) {
+        mPager = pager;
+        mPagedList = new IOSPagedList<K, T>();
+        pager.setPagedList(mPagedList);
+        pager.setPageCallback(this);
+    }
+
+    public IOSPagedList<K, T> getPagedList() {
+        return mPagedList;
+    }
+
+    /**
+     * 推迟通知期间返回上次通知时的行数，ListView在通知之前布局时
+     * 行数与其记录的一致，新增的行在通知后才显示
+     */
+    @Override
+    public int getCount() {
+        return mNotifyPending ? mNotifiedCount : mPagedList.size();
+    }
+
+    @Override
+    public T getItem(int position) {
+        return mPagedList.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mPagedList.getItemId(position);
+    }
+
+    /**
+     * IOSPagedList设置了ItemCallback时使用稳定id，需在setAdapter之前设置
+     */
+    @Override
+    public boolean hasStableIds() {
+        return mPagedList.hasStableIds();
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mPagedList.isLoaded(position) ? VIEW_TYPE_ITEM
+                : VIEW_TYPE_PLACEHOLDER;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        T item = mPagedList.get(position);
+        if (item == null) {
+            return getPlaceholderView(position, convertView, parent);
+        }
+
+        // 刷新比较后内容未变化的行沿用原来的对象，不需要重新绑定
+        if (convertView != null && mPagedList.hasStableIds()
+                && mBoundItems.get(convertView) == item) {
+            return convertView;
+        }
+        View view = getItemView(position, item, convertView, parent);
+        mBoundItems.put(view, item);
+        return view;
+    }
+
+    /**
+     * 同一帧内返回的多页数据合并为一次通知，行数减少或插入到前面时立即通知
+     */
+    @Override
+    public void onPageLoaded(LoadParams<K> params, Page<K, T> page) {
+        IOSListView listView = mPager.getListView();
+        if (listView != null && params.type != LoadParams.TYPE_PREPEND
+                && mPagedList.size() >= mNotifiedCount) {
+            mNotifyPending = true;
+            listView.postDataSetChanged(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        mNotifyPending = false;
+        mNotifiedCount = mPagedList.size();
+        super.notifyDataSetChanged();
+    }
+
+    @Override
+    public void onPageFailed(LoadParams<K> params, Exception e) {
+    }
+
+    /**
+     * 普通行，设置了稳定id时同一数据对象不会重复绑定，因此显示内容只应依赖于item
+     */
+    protected abstract View getItemView(int position, T item,
+            View convertView, ViewGroup parent);
+
+    /**
+     * 所在页已被释放，正在重新加载时显示的占位行
+     */
+    protected abstract View getPlaceholderView(int position, View convertView,
+            ViewGroup parent);
+}
@@ -0,0 +1,769 @@
+package com.lightinthebox.android.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 按页存储IOSListView的数据，只保留可见区域附近的若干页，
+ * 离可见区域较远的页会被释放（只保留该页的行数及页码/游标），
+ * 用户滑回时自动通过IOSListPager重新加载
+ *
+ * @param <K> 页码或游标类型
+ * @param <T> 数据项类型
+ */
+public class IOSPagedList<K, T> {
+
+    /** 可见区域两侧默认保留的页数. */
+    public final static int DEFAULT_WINDOW_PAGES = 3;
+
+    /** 已加载的页. */
+    private final ArrayList<Slot<K, T>> mSlots = new ArrayList<Slot<K, T>>();
+
+    /** 所有页的总行数，包括已释放的页. */
+    private int mSize;
+
+    /** 可见区域两侧保留的页数. */
+    private int mWindowPages = DEFAULT_WINDOW_PAGES;
+
+    /** 内存上限，单位由Sizer决定，默认按行数计算. */
+    private int mMaxSize = Integer.MAX_VALUE;
+
+    /** 当前占用. */
+    private int mLoadedSize;
+
+    private Sizer<T> mSizer;
+
+    /** 设置后记录每一行的id，已释放的页也可以参与刷新时的比较. */
+    private IOSListDiff.ItemCallback<T> mItemCallback;
+
+    /** 数据结构变化的次数，用于判断后台计算的刷新结果是否过期. */
+    private int mModCount;
+
+    /** 页被释放后，需要重新加载时回调. */
+    private PageLoader<K> mPageLoader;
+
+    /** 可见区域对应的第一页及最后一页. */
+    private int mFirstVisibleSlot = -1;
+
+    private int mLastVisibleSlot = -1;
+
+    /**
+     * 设置可见区域两侧保留的页数，超出范围的页会被释放
+     *
+     * @param pages
+     */
+    public void setWindowPages(int pages) {
+        mWindowPages = Math.max(0, pages);
+        trim();
+    }
+
+    /**
+     * 设置内存上限，超出时从离可见区域最远的页开始释放，可见的页不会被释放
+     *
+     * @param maxSize 单位由Sizer决定，未设置Sizer时为行数
+     */
+    public void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * 设置估算单行数据内存占用的方法
+     *
+     * @param sizer
+     */
+    public void setSizer(Sizer<T> sizer) {
+        mSizer = sizer;
+    }
+
+    /**
+     * 设置数据的稳定id，设置后Adapter使用稳定id并支持刷新时只替换有变化的范围，
+     * 需在加载数据之前设置
+     *
+     * @param callback
+     */
+    public void setItemCallback(IOSListDiff.ItemCallback<T> callback) {
+        mItemCallback = callback;
+    }
+
+    public IOSListDiff.ItemCallback<T> getItemCallback() {
+        return mItemCallback;
+    }
+
+    public boolean hasStableIds() {
+        return mItemCallback != null;
+    }
+
+    /**
+     * 数据的稳定id，未设置ItemCallback时返回position
+     *
+     * @param position
+     */
+    public long getItemId(int position) {
+        if (mItemCallback == null) {
+            return position;
+        }
+        Slot<K, T> slot = mSlots.get(findSlot(position));
+        if (slot.ids == null) {
+            // 从未加载过的占位行（已知总数或恢复状态时）没有id，使用负数避免与数据id冲突
+            return -1 - position;
+        }
+        return slot.ids[position - slot.start];
+    }
+
+    void setPageLoader(PageLoader<K> loader) {
+        mPageLoader = loader;
+    }
+
+    /**
+     * 总行数，包括已释放的页
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getPageCount() {
+        return mSlots.size();
+    }
+
+    /**
+     * 获取数据，所在页已被释放时返回null，此时应显示占位行
+     *
+     * @param position
+     */
+    public T get(int position) {
+        Slot<K, T> slot = mSlots.get(findSlot(position));
+        if (slot.items == null) {
+            return null;
+        }
+        return slot.items.get(position - slot.start);
+    }
+
+    /**
+     * 所在页是否已加载
+     *
+     * @param position
+     */
+    public boolean isLoaded(int position) {
+        return mSlots.get(findSlot(position)).items != null;
+    }
+
+    /**
+     * 追加一页
+     */
+    void appendPage(K key, List<T> items) {
+        Slot<K, T> slot = new Slot<K, T>(key, mSize);
+        mSlots.add(slot);
+        fill(slot, items);
+        mSize += slot.size;
+        mModCount++;
+        trim();
+    }
+
+    /**
+     * 在最前面插入一页，之后各页的位置依次后移
+     */
+    void prependPage(K key, List<T> items) {
+        Slot<K, T> slot = new Slot<K, T>(key, 0);
+        fill(slot, items);
+        mSlots.add(0, slot);
+        shift(1, slot.size);
+        if (mFirstVisibleSlot >= 0) {
+            mFirstVisibleSlot++;
+            mLastVisibleSlot++;
+        }
+        mModCount++;
+        trim();
+    }
+
+    /**
+     * 重新加载被释放的页后调用，行数有变化时调整后面各页的位置
+     */
+    void replacePage(K key, List<T> items) {
+        int index = findUnloaded(key);
+        if (index >= 0) {
+            replacePageAt(index, items);
+        }
+    }
+
+    /**
+     * 填充第index页，该页已加载时直接返回
+     */
+    void replacePageAt(int index, List<T> items) {
+        Slot<K, T> slot = mSlots.get(index);
+        if (slot.items != null) {
+            return;
+        }
+        int oldSize = slot.size;
+        int skip = Math.min(slot.skip, items.size());
+        List<T> kept = withoutRemoved(slot, items.subList(skip, items.size()));
+        if (slot.skip > 0) {
+            // 刷新时被截断的旧第一页，重新加载得到的是新的第一页，去掉其他页中已有的行
+            kept = withoutDuplicates(index, kept);
+        }
+        fill(slot, kept);
+        shift(index + 1, slot.size - oldSize);
+        mModCount++;
+        trim();
+    }
+
+    /**
+     * 未加载且页码/游标相同的页中离可见区域最近的，还没有可见区域时取第一个，没有时返回-1
+     */
+    private int findUnloaded(K key) {
+        int found = -1;
+        int foundDistance = 0;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot<K, T> slot = mSlots.get(i);
+            if (slot.items != null || !equal(slot.key, key)) {
+                continue;
+            }
+            if (mFirstVisibleSlot < 0) {
+                return i;
+            }
+            int d = distance(i, mFirstVisibleSlot, mLastVisibleSlot);
+            if (found < 0 || d < foundDistance) {
+                found = i;
+                foundDistance = d;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 等待重新加载的该页前面需要跳过的行数，不为0时表示是刷新后被截断的旧第一页，
+     * 没有未加载的该页时返回-1
+     */
+    int getReloadSkip(K key) {
+        int index = findUnloaded(key);
+        return index < 0 ? -1 : mSlots.get(index).skip;
+    }
+
+    /**
+     * 在末尾添加一个未加载的页，恢复状态时调用，可见时通过PageLoader加载
+     *
+     * @param key
+     * @param size 行数
+     * @param skip 重新加载时前面需要跳过的行数
+     * @param removedIds 重新加载时需要去掉的行，可以为null
+     */
+    void appendPlaceholder(K key, int size, int skip, Set<Long> removedIds) {
+        Slot<K, T> slot = new Slot<K, T>(key, mSize);
+        slot.size = size;
+        slot.skip = skip;
+        if (removedIds != null && !removedIds.isEmpty()) {
+            slot.removedIds = new HashSet<Long>(removedIds);
+        }
+        mSlots.add(slot);
+        mSize += size;
+        mModCount++;
+    }
+
+    K getPageKey(int index) {
+        return mSlots.get(index).key;
+    }
+
+    /**
+     * 第index页的行数，包括已释放的页
+     */
+    int getPageRowCount(int index) {
+        return mSlots.get(index).size;
+    }
+
+    int getPageSkip(int index) {
+        return mSlots.get(index).skip;
+    }
+
+    /**
+     * 第index页重新加载时需要去掉的行，没有时返回null
+     */
+    Set<Long> getPageRemovedIds(int index) {
+        return mSlots.get(index).removedIds;
+    }
+
+    /**
+     * position所在的页序号
+     */
+    int findPage(int position) {
+        return findSlot(position);
+    }
+
+    /**
+     * 已知总数时一次建立所有页，未加载的页显示占位行，可见时才加载，
+     * 已加载的相同页码/游标的页会被保留
+     *
+     * @param keys 每一页的页码/游标
+     * @param totalCount 总行数
+     * @param pageSize 每页行数
+     */
+    void initSparse(List<K> keys, int totalCount, int pageSize) {
+        HashMap<K, Slot<K, T>> loaded = new HashMap<K, Slot<K, T>>();
+        for (Slot<K, T> slot : mSlots) {
+            if (slot.items != null && slot.skip == 0) {
+                loaded.put(slot.key, slot);
+            }
+        }
+        clear();
+
+        int start = 0;
+        for (int i = 0; i < keys.size() && start < totalCount; i++) {
+            K key = keys.get(i);
+            Slot<K, T> slot = new Slot<K, T>(key, start);
+            Slot<K, T> old = loaded.get(key);
+            if (old != null) {
+                fill(slot, old.items);
+            } else {
+                slot.size = Math.min(pageSize, totalCount - start);
+            }
+            mSlots.add(slot);
+            start += slot.size;
+        }
+        mSize = start;
+        trim();
+    }
+
+    /**
+     * 释放所有页，只保留每一页的行数，已知总数的列表刷新时调用
+     */
+    void evictAll() {
+        for (Slot<K, T> slot : mSlots) {
+            evict(slot);
+        }
+        mModCount++;
+    }
+
+    /**
+     * 可见区域附近是否有该页码/游标的未加载的页，用于丢弃快速滑过的页的加载请求。
+     * 刷新后新的第一页与被截断的旧第一页页码/游标相同，需检查所有相同的页
+     */
+    boolean isPageNeeded(K key) {
+        if (mFirstVisibleSlot < 0) {
+            return false;
+        }
+        int from = Math.max(0, mFirstVisibleSlot - 1);
+        int to = Math.min(mSlots.size() - 1, mLastVisibleSlot + 1);
+        for (int i = from; i <= to; i++) {
+            Slot<K, T> slot = mSlots.get(i);
+            if (slot.items == null && equal(slot.key, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 清空所有数据，刷新时调用
+     */
+    void clear() {
+        mSlots.clear();
+        mSize = 0;
+        mLoadedSize = 0;
+        mFirstVisibleSlot = -1;
+        mLastVisibleSlot = -1;
+        mModCount++;
+    }
+
+    int getModCount() {
+        return mModCount;
+    }
+
+    /**
+     * 所有行的id，有页在设置ItemCallback之前加载时返回null
+     */
+    long[] snapshotIds() {
+        long[] ids = new long[mSize];
+        for (Slot<K, T> slot : mSlots) {
+            if (slot.ids == null) {
+                return null;
+            }
+            System.arraycopy(slot.ids, 0, ids, slot.start, slot.size);
+        }
+        return ids;
+    }
+
+    /**
+     * 所有行的数据，已释放的页为null
+     */
+    List<T> snapshotItems() {
+        ArrayList<T> items = new ArrayList<T>(mSize);
+        for (Slot<K, T> slot : mSlots) {
+            if (slot.items != null) {
+                items.addAll(slot.items);
+            } else {
+                for (int i = 0; i < slot.size; i++) {
+                    items.add(null);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 应用刷新结果：被替换的行从头部移除，新的第一页插入到最前面，其余页保持不变
+     *
+     * @param key 第一页的页码/游标
+     * @param diff 后台计算的比较结果
+     */
+    void applyRefresh(K key, IOSListDiff.Result<T> diff) {
+        if (diff.isFullReplace()) {
+            clear();
+            appendPage(key, diff.getHead());
+            return;
+        }
+
+        int remove = diff.getReplacedCount();
+        while (remove > 0 && !mSlots.isEmpty()) {
+            Slot<K, T> slot = mSlots.get(0);
+            if (slot.size <= remove) {
+                evict(slot);
+                mSlots.remove(0);
+                remove -= slot.size;
+            } else {
+                trimFront(slot, remove);
+                remove = 0;
+            }
+        }
+
+        updateStarts();
+
+        // 移到新的第一页中的行从保留的页中移除，从后往前移除，前面的位置不受影响
+        int[] removed = diff.getRemovedPositions();
+        int replaced = diff.getReplacedCount();
+        for (int i = removed.length - 1; i >= 0; i--) {
+            int position = removed[i] - replaced;
+            if (position >= 0 && position < mSize) {
+                removeRow(mSlots.get(findSlot(position)), position);
+            }
+        }
+
+        Slot<K, T> head = new Slot<K, T>(key, 0);
+        fill(head, diff.getHead());
+        mSlots.add(0, head);
+
+        updateStarts();
+        mFirstVisibleSlot = -1;
+        mLastVisibleSlot = -1;
+        mModCount++;
+        trim();
+    }
+
+    private void updateStarts() {
+        int start = 0;
+        for (Slot<K, T> slot : mSlots) {
+            slot.start = start;
+            start += slot.size;
+        }
+        mSize = start;
+    }
+
+    /**
+     * 移除一页中的一行，记录其id，该页重新加载时同样去掉该行，调用后需更新各页的位置
+     */
+    private void removeRow(Slot<K, T> slot, int position) {
+        int index = position - slot.start;
+        if (slot.ids == null) {
+            return;
+        }
+        if (slot.removedIds == null) {
+            slot.removedIds = new HashSet<Long>();
+        }
+        slot.removedIds.add(slot.ids[index]);
+        long[] ids = new long[slot.size - 1];
+        System.arraycopy(slot.ids, 0, ids, 0, index);
+        System.arraycopy(slot.ids, index + 1, ids, index, slot.size - 1 - index);
+        slot.ids = ids;
+        if (slot.items != null) {
+            T item = slot.items.remove(index);
+            int cost = mSizer == null ? 1 : mSizer.sizeOf(item);
+            slot.cost -= cost;
+            mLoadedSize -= cost;
+        }
+        slot.size--;
+        mSize--;
+    }
+
+    /**
+     * 去掉重新加载的数据中已被移除的行
+     */
+    private List<T> withoutRemoved(Slot<K, T> slot, List<T> items) {
+        if (slot.removedIds == null || mItemCallback == null) {
+            return items;
+        }
+        ArrayList<T> kept = new ArrayList<T>(items.size());
+        for (T item : items) {
+            if (!slot.removedIds.contains(mItemCallback.getItemId(item))) {
+                kept.add(item);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * 去掉其他页中已有id的行，其他页没有id时不处理
+     */
+    private List<T> withoutDuplicates(int index, List<T> items) {
+        if (mItemCallback == null) {
+            return items;
+        }
+        HashSet<Long> existing = new HashSet<Long>();
+        for (int i = 0; i < mSlots.size(); i++) {
+            long[] ids = mSlots.get(i).ids;
+            if (i != index && ids != null) {
+                for (long id : ids) {
+                    existing.add(id);
+                }
+            }
+        }
+        ArrayList<T> kept = new ArrayList<T>(items.size());
+        for (T item : items) {
+            if (!existing.contains(mItemCallback.getItemId(item))) {
+                kept.add(item);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * 去掉一页前面的count行，该页重新加载时同样跳过这些行
+     */
+    private void trimFront(Slot<K, T> slot, int count) {
+        slot.skip += count;
+        slot.size -= count;
+        if (slot.ids != null) {
+            long[] ids = new long[slot.size];
+            System.arraycopy(slot.ids, count, ids, 0, slot.size);
+            slot.ids = ids;
+        }
+        if (slot.items != null) {
+            List<T> rest = new ArrayList<T>(slot.items.subList(count,
+                    slot.items.size()));
+            evict(slot);
+            fill(slot, rest);
+        }
+    }
+
+    /**
+     * 可见区域变化时调用，释放远离可见区域的页并重新加载滑回来的页
+     *
+     * @param first 第一个可见行
+     * @param last 最后一个可见行
+     * @return 可见的页是否有变化
+     */
+    boolean onVisibleRangeChanged(int first, int last) {
+        if (mSize == 0) {
+            return false;
+        }
+        first = Math.max(0, Math.min(first, mSize - 1));
+        last = Math.max(first, Math.min(last, mSize - 1));
+        int firstSlot = findSlot(first);
+        int lastSlot = findSlot(last);
+        if (firstSlot == mFirstVisibleSlot && lastSlot == mLastVisibleSlot) {
+            return false;
+        }
+        mFirstVisibleSlot = firstSlot;
+        mLastVisibleSlot = lastSlot;
+
+        trim();
+        loadVisiblePages();
+        return true;
+    }
+
+    /**
+     * 该页与可见区域相隔的页数，可见时为0，找不到该页或还没有可见区域时返回-1。
+     * 有多个相同页码/游标的页时优先取未加载的页中最近的，即重新加载的目标
+     */
+    int getPageDistance(K key) {
+        if (mFirstVisibleSlot < 0) {
+            return -1;
+        }
+        int unloaded = -1;
+        int loaded = -1;
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot<K, T> slot = mSlots.get(i);
+            if (!equal(slot.key, key)) {
+                continue;
+            }
+            int d = distance(i, mFirstVisibleSlot, mLastVisibleSlot);
+            if (slot.items == null) {
+                unloaded = unloaded < 0 ? d : Math.min(unloaded, d);
+            } else {
+                loaded = loaded < 0 ? d : Math.min(loaded, d);
+            }
+        }
+        return unloaded >= 0 ? unloaded : loaded;
+    }
+
+    /**
+     * 重新加载可见区域及前后各一页中已被释放的页
+     */
+    void loadVisiblePages() {
+        if (mPageLoader != null && mFirstVisibleSlot >= 0) {
+            int from = Math.max(0, mFirstVisibleSlot - 1);
+            int to = Math.min(mSlots.size() - 1, mLastVisibleSlot + 1);
+            for (int i = from; i <= to; i++) {
+                Slot<K, T> slot = mSlots.get(i);
+                if (slot.items == null) {
+                    mPageLoader.onPageNeeded(slot.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 释放超出保留范围的页，仍超出内存上限时从最远的页开始释放
+     */
+    private void trim() {
+        if (mFirstVisibleSlot < 0) {
+            trimToMaxSize(mSlots.size() - 1, mSlots.size() - 1);
+            return;
+        }
+        for (int i = 0; i < mSlots.size(); i++) {
+            if (distance(i, mFirstVisibleSlot, mLastVisibleSlot) > mWindowPages) {
+                evict(mSlots.get(i));
+            }
+        }
+        trimToMaxSize(mFirstVisibleSlot, mLastVisibleSlot);
+    }
+
+    private void trimToMaxSize(int firstKept, int lastKept) {
+        while (mLoadedSize > mMaxSize) {
+            int farthest = -1;
+            int maxDistance = 0;
+            for (int i = 0; i < mSlots.size(); i++) {
+                int d = distance(i, firstKept, lastKept);
+                if (d > maxDistance && mSlots.get(i).items != null) {
+                    maxDistance = d;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) {
+                return;
+            }
+            evict(mSlots.get(farthest));
+        }
+    }
+
+    private void evict(Slot<K, T> slot) {
+        if (slot.items != null) {
+            slot.items = null;
+            mLoadedSize -= slot.cost;
+            slot.cost = 0;
+        }
+    }
+
+    private void fill(Slot<K, T> slot, List<T> items) {
+        slot.items = new ArrayList<T>(items);
+        slot.size = items.size();
+        int cost = 0;
+        if (mSizer == null) {
+            cost = slot.size;
+        } else {
+            for (T item : items) {
+                cost += mSizer.sizeOf(item);
+            }
+        }
+        slot.cost = cost;
+        mLoadedSize += cost;
+
+        if (mItemCallback != null) {
+            slot.ids = new long[slot.size];
+            for (int i = 0; i < slot.size; i++) {
+                slot.ids[i] = mItemCallback.getItemId(slot.items.get(i));
+            }
+        }
+    }
+
+    private void shift(int fromSlot, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        for (int i = fromSlot; i < mSlots.size(); i++) {
+            mSlots.get(i).start += delta;
+        }
+        mSize += delta;
+    }
+
+    /**
+     * 二分查找position所在的页
+     */
+    private int findSlot(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position
+                    + ", size " + mSize);
+        }
+        int low = 0;
+        int high = mSlots.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSlots.get(mid).start <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int distance(int slot, int first, int last) {
+        if (slot < first) {
+            return first - slot;
+        }
+        if (slot > last) {
+            return slot - last;
+        }
+        return 0;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * 一页数据，items为null表示已被释放
+     */
+    private static class Slot<K, T> {
+
+        final K key;
+
+        int start;
+
+        int size;
+
+        int cost;
+
+        /** 刷新后该页前面被替换掉的行数. */
+        int skip;
+
+        /** 刷新后移到第一页中的行的id，重新加载时去掉. */
+        HashSet<Long> removedIds;
+
+        /** 每一行的id，页被释放后仍保留. */
+        long[] ids;
+
+        List<T> items;
+
+        Slot(K key, int start) {
+            this.key = key;
+            this.start = start;
+        }
+    }
+
+    /**
+     * 估算单行数据的内存占用
+     */
+    public interface Sizer<T> {
+
+        public int sizeOf(T item);
+    }
+
+    /**
+     * 页被释放后需要重新加载时回调
+     */
+    interface PageLoader<K> {
+
+        public void onPageNeeded(K key);
+    }
+}
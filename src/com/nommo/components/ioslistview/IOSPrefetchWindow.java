@@ -0,0 +1,99 @@
+package com.lightinthebox.android.view;
+
+import android.os.SystemClock;
+
+/**
+ * 根据当前滑动速度及测得的加载耗时计算预加载距离(行数)，
+ * 让下一页在用户滑动到底部之前就已经返回
+ */
+class IOSPrefetchWindow {
+
+    /** 还没有测得加载耗时时使用的默认值. */
+    private final static long DEFAULT_LATENCY_MILLIS = 500;
+
+    /** 预留的余量，速度或耗时波动时也能提前加载. */
+    private final static float SAFETY_FACTOR = 1.5f;
+
+    /** 平滑系数，新采样所占的比重. */
+    private final static float SMOOTHING = 0.3f;
+
+    /** 超过该时间没有滚动回调，认为速度已归零. */
+    private final static long VELOCITY_TIMEOUT_MILLIS = 100;
+
+    /** 最少预加载的行数，与原来的预加载行为保持一致. */
+    private int mMinRows = 1;
+
+    /** 最多预加载的行数. */
+    private int mMaxRows = 60;
+
+    /** 向下滑动的速度，单位：行/毫秒. */
+    private float mVelocity;
+
+    private float mLastPosition = -1;
+
+    private long mLastScrollTime;
+
+    /** 平均加载耗时. */
+    private float mLatency = DEFAULT_LATENCY_MILLIS;
+
+    private long mLoadStartTime = -1;
+
+    void setMaxRows(int maxRows) {
+        mMaxRows = Math.max(mMinRows, maxRows);
+    }
+
+    /**
+     * 滚动时调用，记录当前位置并更新速度
+     *
+     * @param position 第一个可见行的位置，包含行内偏移的小数部分
+     */
+    void onScroll(float position) {
+        long now = SystemClock.uptimeMillis();
+        if (mLastPosition >= 0) {
+            long dt = now - mLastScrollTime;
+            if (dt > VELOCITY_TIMEOUT_MILLIS) {
+                mVelocity = 0;
+            } else if (dt > 0) {
+                float sample = Math.max(0, (position - mLastPosition) / dt);
+                mVelocity = mVelocity + SMOOTHING * (sample - mVelocity);
+            }
+        }
+        mLastPosition = position;
+        mLastScrollTime = now;
+    }
+
+    /**
+     * 停止滚动时调用
+     */
+    void onScrollIdle() {
+        mVelocity = 0;
+        mLastPosition = -1;
+    }
+
+    void onLoadStarted() {
+        mLoadStartTime = SystemClock.uptimeMillis();
+    }
+
+    void onLoadCancelled() {
+        mLoadStartTime = -1;
+    }
+
+    void onLoadFinished() {
+        if (mLoadStartTime < 0) {
+            return;
+        }
+        long sample = SystemClock.uptimeMillis() - mLoadStartTime;
+        mLatency = mLatency + SMOOTHING * (sample - mLatency);
+        mLoadStartTime = -1;
+    }
+
+    /**
+     * 当前需要提前加载的行数
+     */
+    int getLookAheadRows() {
+        long idle = SystemClock.uptimeMillis() - mLastScrollTime;
+        float velocity = idle > VELOCITY_TIMEOUT_MILLIS ? 0 : mVelocity;
+        int rows = (int) Math.ceil(velocity * mLatency * SAFETY_FACTOR);
+        return Math.min(mMaxRows, Math.max(mMinRows, rows));
+    }
+}
@@ -0,0 +1,76 @@
+package com.lightinthebox.android.view;
+
+import java.util.ArrayList;
+
+/**
+ * IOSListView一次刷新或加载更多请求的标识，刷新开始后之前的请求会被取消，
+ * 网络层可以通过addCancelListener提前中止请求，结果返回时通过isCancelled判断是否丢弃
+ */
+public class IOSRequestToken {
+
+    /** 请求所属的刷新代数，每次刷新加1. */
+    private final int mGeneration;
+
+    private volatile boolean mCancelled = false;
+
+    private ArrayList<Runnable> mCancelListeners;
+
+    public IOSRequestToken(int generation) {
+        mGeneration = generation;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 请求是否已被取消，可在任意线程中调用
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 请求被取消时回调，已经取消时立即回调，可在任意线程中调用
+     *
+     * @param listener
+     */
+    public void addCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                if (mCancelListeners == null) {
+                    mCancelListeners = new ArrayList<Runnable>(1);
+                }
+                mCancelListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeCancelListener(Runnable listener) {
+        if (mCancelListeners != null) {
+            mCancelListeners.remove(listener);
+        }
+    }
+
+    /**
+     * 取消请求，并回调所有取消监听
+     */
+    public void cancel() {
+        ArrayList<Runnable> listeners;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            listeners = mCancelListeners;
+            mCancelListeners = null;
+        }
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.lightinthebox.android.view;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+/**
+ * 松手后header/footer回弹的动画，每帧（vsync）计算一次高度，
+ * header与footer各使用一个实例，可以同时运行互不影响
+ */
+class IOSSettleAnimator implements Runnable {
+
+    /** 默认动画时长. */
+    final static int DEFAULT_DURATION = 400;
+
+    private final View mView;
+
+    private final Target mTarget;
+
+    private Interpolator mInterpolator = new DecelerateInterpolator();
+
+    private int mDuration = DEFAULT_DURATION;
+
+    private int mFrom;
+
+    private int mTo;
+
+    private long mStartTime;
+
+    private boolean mRunning;
+
+    /**
+     * @param view 用于在下一帧回调
+     * @param target 每帧接收新的高度
+     */
+    IOSSettleAnimator(View view, Target target) {
+        mView = view;
+        mTarget = target;
+    }
+
+    void setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator != null ? interpolator
+                : new DecelerateInterpolator();
+    }
+
+    void setDuration(int duration) {
+        mDuration = Math.max(0, duration);
+    }
+
+    /**
+     * 从from回弹到to，正在运行的动画会被替换
+     */
+    void start(int from, int to) {
+        cancel();
+        if (from == to) {
+            return;
+        }
+        mFrom = from;
+        mTo = to;
+        mStartTime = AnimationUtils.currentAnimationTimeMillis();
+        mRunning = true;
+        ViewCompat.postOnAnimation(mView, this);
+    }
+
+    /**
+     * 停止动画，高度保持在当前值
+     */
+    void cancel() {
+        if (mRunning) {
+            mRunning = false;
+            mView.removeCallbacks(this);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void run() {
+        if (!mRunning) {
+            return;
+        }
+        long elapsed = AnimationUtils.currentAnimationTimeMillis() - mStartTime;
+        float t = mDuration == 0 ? 1 : Math.min(1f, (float) elapsed / mDuration);
+        if (t >= 1) {
+            mRunning = false;
+            mTarget.onSettleUpdate(mTo);
+            return;
+        }
+        float fraction = mInterpolator.getInterpolation(t);
+        mTarget.onSettleUpdate(mFrom + Math.round((mTo - mFrom) * fraction));
+        ViewCompat.postOnAnimation(mView, this);
+    }
+
+    /**
+     * 接收动画计算出的高度
+     */
+    interface Target {
+
+        public void onSettleUpdate(int value);
+    }
+}
@@ -0,0 +1,85 @@
+package com.lightinthebox.android.view;
+
+import java.util.ArrayList;
+
+import android.util.SparseArray;
+
+/**
+ * 按view类型缓存可复用的ViewHolder，同一界面的多个IOSListView可以共用一个，
+ * 只能在主线程中使用
+ */
+public class IOSViewPool {
+
+    /** 每种类型默认最多缓存的数量. */
+    public final static int DEFAULT_MAX_SCRAP = 5;
+
+    private final SparseArray<ArrayList<IOSHolderAdapter.ViewHolder>> mScrap = new SparseArray<ArrayList<IOSHolderAdapter.ViewHolder>>();
+
+    private final SparseArray<Integer> mMaxScrap = new SparseArray<Integer>();
+
+    /**
+     * 设置某种类型最多缓存的数量，超出的部分会被丢弃
+     *
+     * @param viewType
+     * @param max
+     */
+    public void setMaxRecycledViews(int viewType, int max) {
+        mMaxScrap.put(viewType, max);
+        ArrayList<IOSHolderAdapter.ViewHolder> scrap = mScrap.get(viewType);
+        while (scrap != null && scrap.size() > max) {
+            scrap.remove(scrap.size() - 1);
+        }
+    }
+
+    public int getMaxRecycledViews(int viewType) {
+        Integer max = mMaxScrap.get(viewType);
+        return max != null ? max : DEFAULT_MAX_SCRAP;
+    }
+
+    /**
+     * 取出一个该类型的ViewHolder，没有时返回null
+     *
+     * @param viewType
+     */
+    public IOSHolderAdapter.ViewHolder get(int viewType) {
+        ArrayList<IOSHolderAdapter.ViewHolder> scrap = mScrap.get(viewType);
+        if (scrap == null || scrap.isEmpty()) {
+            return null;
+        }
+        return scrap.remove(scrap.size() - 1);
+    }
+
+    /**
+     * 放入一个不再使用的ViewHolder，其view不能仍在某个ViewGroup中
+     *
+     * @return 是否已缓存，超出数量上限时返回false
+     */
+    public boolean put(IOSHolderAdapter.ViewHolder holder) {
+        int viewType = holder.getItemViewType();
+        ArrayList<IOSHolderAdapter.ViewHolder> scrap = mScrap.get(viewType);
+        if (scrap == null) {
+            scrap = new ArrayList<IOSHolderAdapter.ViewHolder>();
+            mScrap.put(viewType, scrap);
+        }
+        if (scrap.size() >= getMaxRecycledViews(viewType)
+                || scrap.contains(holder)) {
+            return false;
+        }
+        scrap.add(holder);
+        return true;
+    }
+
+    /**
+     * 当前缓存的该类型数量
+     *
+     * @param viewType
+     */
+    public int getRecycledViewCount(int viewType) {
+        ArrayList<IOSHolderAdapter.ViewHolder> scrap = mScrap.get(viewType);
+        return scrap == null ? 0 : scrap.size();
+    }
+
+    public void clear() {
+        mScrap.clear();
+    }
+}
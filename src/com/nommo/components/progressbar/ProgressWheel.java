@@ -1,12 +1,18 @@
 package com.todddavies.components.progressbar;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Shader;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.View;
 
@@ -61,17 +67,51 @@ public class ProgressWheel extends View {
     private RectF circleInnerContour = new RectF();
 
     //Animation
-    //The amount of pixels to move the bar by on each draw
+    //The amount of degrees to move the bar by on each 60Hz frame,
+    //used when no spinDegreesPerSecond is set
     private int spinSpeed = 2;
-    //The number of milliseconds to wait inbetween each draw
+    //The minimum number of milliseconds between two spin frames,
+    //used when no maxFrameRate is set
     private int delayMillis = 0;
-    int progress = 0;
-    boolean isSpinning = false;
+    //The spin speed in degrees per second, independent of the frame rate
+    private float spinDegreesPerSecond = 0;
+    private boolean hasSpinDegreesPerSecond = false;
+    //The maximum number of spin frames per second, 0 means every display frame
+    private int maxFrameRate = 0;
+    //Progress and mode can be written from any thread, onDraw reads the latest values
+    final AtomicInteger progress = new AtomicInteger(0);
+    volatile boolean isSpinning = false;
+    //Set while a redraw for a progress update is posted, so any number of
+    //updates within one frame cause a single invalidate
+    private final AtomicBoolean redrawPending = new AtomicBoolean(false);
+    private final Runnable redraw = new Runnable() {
+        public void run() {
+            redrawPending.set(false);
+            invalidate();
+        }
+    };
+    //The bar position in spin mode, in degrees
+    private float spinPhase = 0;
+    //The animation time of the last spin frame, 0 before the first frame
+    private long lastSpinFrameTime = 0;
+    //The shared clock ticking this wheel, null when not animating
+    private ProgressWheelClock clock;
+    //Whether the view is attached and not temporarily detached by a list
+    private boolean attached = false;
+    private boolean temporarilyDetached = false;
 
     //Other
     private String text = "";
     private String[] splitText = {};
 
+    //Static layer cache
+    //The circle, rim, contours and text only change when the size, colours,
+    //shaders or text change, so they are drawn once into this bitmap and
+    //only the bar is drawn on each frame
+    private Bitmap staticLayer;
+    private Canvas staticLayerCanvas;
+    private boolean staticLayerDirty = true;
+
     /**
      * The constructor for the ProgressWheel
      *
@@ -151,9 +191,61 @@ public class ProgressWheel extends View {
 
         setupBounds();
         setupPaints();
+        if (staticLayer != null && (staticLayer.getWidth() != w || staticLayer.getHeight() != h)) {
+            releaseStaticLayer();
+        }
+        staticLayerDirty = true;
         invalidate();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        //A redraw posted while detached may never run (before API 24 it goes to
+        //the posting thread's run queue), so release the latch and draw the latest value
+        redrawPending.set(false);
+        invalidate();
+        updateSpinLoop();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        updateSpinLoop();
+        releaseStaticLayer();
+    }
+
+    /**
+     * Called when a list moves this view to its scrap heap
+     */
+    @Override
+    public void onStartTemporaryDetach() {
+        super.onStartTemporaryDetach();
+        temporarilyDetached = true;
+        updateSpinLoop();
+    }
+
+    @Override
+    public void onFinishTemporaryDetach() {
+        super.onFinishTemporaryDetach();
+        temporarilyDetached = false;
+        updateSpinLoop();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateSpinLoop();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateSpinLoop();
+    }
+
     /**
      * Set the properties of the paints we're using to
      * draw the progress wheel
@@ -241,6 +333,17 @@ public class ProgressWheel extends View {
             delayMillis = 0;
         }
 
+        if (a.hasValue(R.styleable.ProgressWheel_spinDegreesPerSecond)) {
+            setSpinDegreesPerSecond(a.getFloat(
+                    R.styleable.ProgressWheel_spinDegreesPerSecond, 0));
+        }
+
+        maxFrameRate = a.getInteger(R.styleable.ProgressWheel_maxFrameRate,
+                maxFrameRate);
+        if (maxFrameRate < 0) {
+            maxFrameRate = 0;
+        }
+
         barColor = a.getColor(R.styleable.ProgressWheel_barColor, barColor);
 
         barLength = (int) a.getDimension(R.styleable.ProgressWheel_barLength,
@@ -277,19 +380,34 @@ public class ProgressWheel extends View {
 
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        //Draw the circle, rim, contours and text from the cached layer
+        if (ensureStaticLayer()) {
+            canvas.drawBitmap(staticLayer, 0, 0, null);
+        } else {
+            drawStaticParts(canvas);
+        }
+        //Draw the bar (the text sits inside the circle so it never overlaps)
+        if (isSpinning) {
+            canvas.drawArc(circleBounds, spinPhase - 90, barLength, false,
+                    barPaint);
+            updateSpinLoop();
+        } else {
+            //Reset here rather than in stopSpinning, which may run on any thread
+            spinPhase = 0;
+            canvas.drawArc(circleBounds, -90, progress.get(), false, barPaint);
+        }
+    }
+
+    /**
+     * Draw everything except the bar
+     */
+    private void drawStaticParts(Canvas canvas) {
         //Draw the inner circle
         canvas.drawArc(circleBounds, 360, 360, false, circlePaint);
         //Draw the rim
         canvas.drawArc(circleBounds, 360, 360, false, rimPaint);
         canvas.drawArc(circleOuterContour, 360, 360, false, contourPaint);
         canvas.drawArc(circleInnerContour, 360, 360, false, contourPaint);
-        //Draw the bar
-        if (isSpinning) {
-            canvas.drawArc(circleBounds, progress - 90, barLength, false,
-                    barPaint);
-        } else {
-            canvas.drawArc(circleBounds, -90, progress, false, barPaint);
-        }
         //Draw the text (attempts to center it horizontally and vertically)
         float textHeight = textPaint.descent() - textPaint.ascent();
         float verticalTextOffset = (textHeight / 2) - textPaint.descent();
@@ -299,17 +417,114 @@ public class ProgressWheel extends View {
             canvas.drawText(s, this.getWidth() / 2 - horizontalTextOffset,
                     this.getHeight() / 2 + verticalTextOffset, textPaint);
         }
-        if (isSpinning) {
-            scheduleRedraw();
+    }
+
+    /**
+     * Make sure the cached layer exists and is up to date
+     *
+     * @return false if the layer can't be allocated, draw directly instead
+     */
+    private boolean ensureStaticLayer() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        if (staticLayer == null) {
+            try {
+                staticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                return false;
+            }
+            staticLayerCanvas = new Canvas(staticLayer);
+            staticLayerDirty = true;
         }
+        if (staticLayerDirty) {
+            staticLayer.eraseColor(Color.TRANSPARENT);
+            drawStaticParts(staticLayerCanvas);
+            staticLayerDirty = false;
+        }
+        return true;
+    }
+
+    private void releaseStaticLayer() {
+        if (staticLayer != null) {
+            staticLayer.recycle();
+            staticLayer = null;
+            staticLayerCanvas = null;
+        }
+        staticLayerDirty = true;
+    }
+
+    /**
+     * Redraw the cached circle, rim, contours and text on the next draw.
+     * Call this after changing a shader returned by {@link #getRimShader()} in place
+     */
+    public void invalidateStaticLayer() {
+        staticLayerDirty = true;
+        invalidate();
+    }
+
+    /**
+     * Register with or leave the window's shared clock depending on whether
+     * the wheel is spinning and can be seen (attached, shown and its window
+     * visible). The phase is kept while suspended so the bar resumes where it stopped
+     */
+    private void updateSpinLoop() {
+        if (isSpinning && canAnimate()) {
+            if (clock == null) {
+                lastSpinFrameTime = 0;
+                clock = ProgressWheelClock.register(this);
+            }
+        } else if (clock != null) {
+            clock.unregister(this);
+            clock = null;
+        }
+    }
+
+    private boolean canAnimate() {
+        return attached && !temporarilyDetached
+                && getWindowVisibility() == VISIBLE && isShown();
     }
 
-    private void scheduleRedraw() {
-    	progress += spinSpeed;
-        if (progress > 360) {
-            progress = 0;
+    /**
+     * Called by the shared clock on each display frame while spinning. The bar
+     * moves by the time elapsed since the last spin frame, so the speed is the
+     * same at any refresh rate
+     *
+     * @param now the animation time of this frame
+     * @return milliseconds until this wheel needs the next frame (0 for the next
+     *         display frame), or Long.MAX_VALUE once it has left the clock
+     */
+    long onSpinFrame(long now) {
+        updateSpinLoop();
+        if (clock == null) {
+            return Long.MAX_VALUE;
+        }
+        long interval = getMinFrameInterval();
+        if (lastSpinFrameTime == 0) {
+            lastSpinFrameTime = now;
+        } else if (now - lastSpinFrameTime >= interval) {
+            spinPhase += getEffectiveSpinRate() * (now - lastSpinFrameTime) / 1000f;
+            spinPhase %= 360;
+            lastSpinFrameTime = now;
+            invalidate();
         }
-        postInvalidateDelayed(delayMillis);
+        return Math.max(0, lastSpinFrameTime + interval - now);
+    }
+
+    private float getEffectiveSpinRate() {
+        if (hasSpinDegreesPerSecond) {
+            return spinDegreesPerSecond;
+        }
+        return spinSpeed * 1000f / Math.max(delayMillis, 1000f / 60);
+    }
+
+    private long getMinFrameInterval() {
+        if (maxFrameRate > 0) {
+            return 1000 / maxFrameRate;
+        }
+        return delayMillis;
     }
 
 	/**
@@ -328,49 +543,69 @@ public class ProgressWheel extends View {
      * Reset the count (in increment mode)
      */
     public void resetCount() {
-        progress = 0;
+        progress.set(0);
         setText("0%");
         invalidate();
     }
 
     /**
-     * Turn off spin mode
+     * Turn off spin mode (can be called from any thread)
      */
     public void stopSpinning() {
         isSpinning = false;
-        progress = 0;
-        postInvalidate();
+        progress.set(0);
+        requestRedraw();
     }
 
 
     /**
-     * Puts the view on spin mode
+     * Puts the view on spin mode (can be called from any thread)
      */
     public void spin() {
         isSpinning = true;
-        postInvalidate();
+        requestRedraw();
     }
 
     /**
-     * Increment the progress by 1 (of 360)
+     * Increment the progress by 1 (of 360), can be called from any thread
      */
     public void incrementProgress() {
         isSpinning = false;
-        progress++;
-        if (progress > 360)
-            progress = 0;
+        int current;
+        int next;
+        do {
+            current = progress.get();
+            next = current + 1 > 360 ? 0 : current + 1;
+        } while (!progress.compareAndSet(current, next));
 //        setText(Math.round(((float) progress / 360) * 100) + "%");
-       postInvalidate();
+        requestRedraw();
     }
 
 
     /**
-     * Set the progress to a specific value
+     * Set the progress to a specific value, can be called from any thread
      */
     public void setProgress(int i) {
         isSpinning = false;
-        progress = i;
-        postInvalidate();
+        progress.set(i);
+        requestRedraw();
+    }
+
+    public int getProgress() {
+        return progress.get();
+    }
+
+    /**
+     * Schedule a redraw on the next frame unless one is already pending
+     */
+    private void requestRedraw() {
+        if (getWindowToken() == null) {
+            //Not attached: nothing to draw now, onAttachedToWindow redraws
+            return;
+        }
+        if (redrawPending.compareAndSet(false, true)) {
+            ViewCompat.postOnAnimation(this, redraw);
+        }
     }
 
     //----------------------------------
@@ -386,6 +621,7 @@ public class ProgressWheel extends View {
     public void setText(String text) {
         this.text = text;
         splitText = this.text.split("\n");
+        staticLayerDirty = true;
     }
 
     public int getCircleRadius() {
@@ -422,6 +658,7 @@ public class ProgressWheel extends View {
 
     public void setTextSize(int textSize) {
         this.textSize = textSize;
+        staticLayerDirty = true;
         
         if ( this.textPaint != null ) {
         	this.textPaint.setTextSize( this.textSize );
@@ -478,6 +715,7 @@ public class ProgressWheel extends View {
 
     public void setCircleColor(int circleColor) {
         this.circleColor = circleColor;
+        staticLayerDirty = true;
         
         if ( this.circlePaint != null ) {
         	this.circlePaint.setColor( this.circleColor);
@@ -490,6 +728,7 @@ public class ProgressWheel extends View {
 
     public void setRimColor(int rimColor) {
         this.rimColor = rimColor;
+        staticLayerDirty = true;
         
         if ( this.rimPaint != null ) {
         	this.rimPaint.setColor( this.rimColor );
@@ -503,6 +742,7 @@ public class ProgressWheel extends View {
 
     public void setRimShader(Shader shader) {
         this.rimPaint.setShader(shader);
+        staticLayerDirty = true;
     }
 
     public int getTextColor() {
@@ -511,6 +751,7 @@ public class ProgressWheel extends View {
 
     public void setTextColor(int textColor) {
         this.textColor = textColor;
+        staticLayerDirty = true;
         
         if ( this.textPaint != null ) {
         	this.textPaint.setColor( this.textColor );
@@ -521,8 +762,37 @@ public class ProgressWheel extends View {
         return spinSpeed;
     }
 
+    /**
+     * Set the spin speed in degrees per 60Hz frame, clears any speed set with
+     * {@link #setSpinDegreesPerSecond(float)}
+     */
     public void setSpinSpeed(int spinSpeed) {
         this.spinSpeed = spinSpeed;
+        this.hasSpinDegreesPerSecond = false;
+    }
+
+    public float getSpinDegreesPerSecond() {
+        return getEffectiveSpinRate();
+    }
+
+    /**
+     * Set the spin speed in degrees per second (negative spins anticlockwise)
+     */
+    public void setSpinDegreesPerSecond(float spinDegreesPerSecond) {
+        this.spinDegreesPerSecond = spinDegreesPerSecond;
+        this.hasSpinDegreesPerSecond = true;
+    }
+
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * Limit the number of spin frames per second, 0 to draw on every display frame.
+     * Overrides delayMillis
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        this.maxFrameRate = Math.max(0, maxFrameRate);
     }
 
     public int getRimWidth() {
@@ -531,6 +801,7 @@ public class ProgressWheel extends View {
 
     public void setRimWidth(int rimWidth) {
         this.rimWidth = rimWidth;
+        staticLayerDirty = true;
         
         if ( this.rimPaint != null ) {
         	this.rimPaint.setStrokeWidth( this.rimWidth );
@@ -541,8 +812,12 @@ public class ProgressWheel extends View {
         return delayMillis;
     }
 
+    /**
+     * Set the minimum number of milliseconds between two spin frames,
+     * ignored when a max frame rate is set
+     */
     public void setDelayMillis(int delayMillis) {
-        this.delayMillis = delayMillis;
+        this.delayMillis = Math.max(0, delayMillis);
     }
     
     public int getContourColor() {
@@ -551,6 +826,7 @@ public class ProgressWheel extends View {
     
     public void setContourColor(int contourColor) {
     	this.contourColor = contourColor;
+    	staticLayerDirty = true;
     	
     	if ( contourPaint != null ) {
     		this.contourPaint.setColor( this.contourColor );
@@ -563,6 +839,7 @@ public class ProgressWheel extends View {
     
     public void setContourSize(float contourSize) {
     	this.contourSize = contourSize;
+    	staticLayerDirty = true;
     	
     	if ( contourPaint != null ) {
     		this.contourPaint.setStrokeWidth( this.contourSize );
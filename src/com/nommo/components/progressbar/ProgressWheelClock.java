@@ -0,0 +1,105 @@
+package com.todddavies.components.progressbar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.os.IBinder;
+import android.support.v4.view.ViewCompat;
+import android.view.animation.AnimationUtils;
+
+/**
+ * A frame clock shared by all the spinning ProgressWheels of one window.
+ * A single frame callback ticks every registered wheel, so their invalidates
+ * land in the same frame, and no callback is posted once the last wheel
+ * stops. Must only be used on the main thread
+ */
+final class ProgressWheelClock implements Runnable {
+
+    private static final HashMap<IBinder, ProgressWheelClock> clocks = new HashMap<IBinder, ProgressWheelClock>();
+
+    private final IBinder windowToken;
+    private final ArrayList<ProgressWheel> wheels = new ArrayList<ProgressWheel>();
+    //Copy of the wheels for the current tick, wheels may unregister while ticking
+    private ProgressWheel[] ticking = new ProgressWheel[0];
+
+    //The wheel the frame callback is posted on, null when nothing is posted
+    private ProgressWheel host;
+
+    private ProgressWheelClock(IBinder windowToken) {
+        this.windowToken = windowToken;
+    }
+
+    /**
+     * Register a spinning wheel with the clock of its window
+     *
+     * @param wheel an attached wheel
+     * @return the clock, pass it to {@link #unregister(ProgressWheel)} later
+     */
+    static ProgressWheelClock register(ProgressWheel wheel) {
+        IBinder token = wheel.getWindowToken();
+        ProgressWheelClock clock = clocks.get(token);
+        if (clock == null) {
+            clock = new ProgressWheelClock(token);
+            clocks.put(token, clock);
+        }
+        if (!clock.wheels.contains(wheel)) {
+            clock.wheels.add(wheel);
+            clock.schedule(0);
+        }
+        return clock;
+    }
+
+    /**
+     * Remove a wheel, the clock is dropped once no wheel is left
+     */
+    void unregister(ProgressWheel wheel) {
+        if (!wheels.remove(wheel)) {
+            return;
+        }
+        if (wheels.isEmpty()) {
+            cancel();
+            clocks.remove(windowToken);
+        } else if (host == wheel) {
+            //The callback can't stay posted on a view that is going away
+            schedule(0);
+        }
+    }
+
+    @Override
+    public void run() {
+        host = null;
+        long now = AnimationUtils.currentAnimationTimeMillis();
+        int count = wheels.size();
+        if (ticking.length < count) {
+            ticking = new ProgressWheel[count];
+        }
+        wheels.toArray(ticking);
+
+        long delay = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            ProgressWheel wheel = ticking[i];
+            ticking[i] = null;
+            delay = Math.min(delay, wheel.onSpinFrame(now));
+        }
+        if (!wheels.isEmpty() && host == null) {
+            schedule(delay == Long.MAX_VALUE ? 0 : delay);
+        }
+    }
+
+    private void schedule(long delay) {
+        cancel();
+        host = wheels.get(0);
+        if (delay > 0) {
+            ViewCompat.postOnAnimationDelayed(host, this, delay);
+        } else {
+            ViewCompat.postOnAnimation(host, this);
+        }
+    }
+
+    private void cancel() {
+        if (host != null) {
+            host.removeCallbacks(this);
+            host = null;
+        }
+    }
+}